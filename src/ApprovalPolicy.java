@@ -0,0 +1,34 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+public class ApprovalPolicy {
+    // Joins the server lets in without asking the manager: usernames on an allowlist, or anyone
+    // presenting the board's join token. Everything else still waits for the manager's approval.
+    private final Set<String> allowlist = new HashSet<>();
+    private String joinToken;
+
+    public synchronized void loadAllowlist(Path file) throws IOException {
+        for (String line : Files.readAllLines(file)) {
+            String name = line.trim();
+            if (!name.isEmpty() && !name.startsWith("#")) allowlist.add(name);
+        }
+        System.out.println("[Server] Auto-approving " + allowlist.size() + " allowlisted users.");
+    }
+
+    public synchronized void setJoinToken(String joinToken) {
+        this.joinToken = joinToken;
+    }
+
+    public synchronized boolean autoApproves(String username, String presentedToken) {
+        if (allowlist.contains(username)) {
+            return true;
+        }
+        return joinToken != null && presentedToken != null
+                && MessageDigest.isEqual(joinToken.getBytes(StandardCharsets.UTF_8), presentedToken.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,176 @@
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class BaseLayer implements Serializable {
+    // Old board items flattened into images that everything newer is painted over. The board is cut into
+    // square tiles on a fixed grid and only tiles with something on them exist, so drawing anywhere on the
+    // board is kept at full resolution. Tiles are kept and sent as PNG, which for a whiteboard is a small
+    // fraction of the items they replace, and are only decoded by the clients that draw them. Flattened
+    // items can no longer be undone or erased.
+    @Serial
+    private static final long serialVersionUID = 2L;
+    private static final int TILE_SIZE = 512;
+
+    private final List<Tile> tiles;
+    private final long seq;                 // newest op the layer covers
+    private final boolean partial;          // only the tiles that changed, to go over the layer before it
+
+    private static class Tile implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final Rectangle area;       // where the tile goes on the board
+        private final byte[] png;
+        private transient BufferedImage image;
+
+        private Tile(Rectangle area, byte[] png) {
+            this.area = area;
+            this.png = png;
+        }
+
+        private void draw(Graphics2D g) {
+            BufferedImage decoded = decode();
+            if (decoded != null) g.drawImage(decoded, area.x, area.y, null);
+        }
+
+        // Decoded on first use and kept for the redraws that follow
+        private synchronized BufferedImage decode() {
+            if (image == null) {
+                try {
+                    image = ImageIO.read(new ByteArrayInputStream(png));
+                } catch (IOException e) {
+                    System.err.println("Could not decode the base layer: " + e.getMessage());
+                }
+            }
+            return image;
+        }
+
+        private synchronized void release() {
+            image = null;
+        }
+    }
+
+    private BaseLayer(List<Tile> tiles, long seq, boolean partial) {
+        this.tiles = tiles;
+        this.seq = seq;
+        this.partial = partial;
+    }
+
+    // A new layer with the items painted over the previous one. Only the tiles the items touch are
+    // painted and encoded again, the rest are carried over from the previous layer as they are.
+    public static BaseLayer flatten(BaseLayer previous, List<BoardItem> items, long seq) throws IOException {
+        Map<Point, Tile> byCorner = new LinkedHashMap<>();
+        if (previous != null) {
+            for (Tile tile : previous.tiles) byCorner.put(tile.area.getLocation(), tile);
+        }
+        Set<Point> touched = new LinkedHashSet<>();
+        for (BoardItem item : items) {
+            Rectangle b = item.getBounds();
+            for (int x = Math.floorDiv(b.x, TILE_SIZE); x <= Math.floorDiv(b.x + b.width, TILE_SIZE); x++) {
+                for (int y = Math.floorDiv(b.y, TILE_SIZE); y <= Math.floorDiv(b.y + b.height, TILE_SIZE); y++) {
+                    touched.add(new Point(x * TILE_SIZE, y * TILE_SIZE));
+                }
+            }
+        }
+
+        for (Point corner : touched) {
+            Rectangle area = new Rectangle(corner.x, corner.y, TILE_SIZE, TILE_SIZE);
+            Tile old = byCorner.get(corner);
+            BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            try {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+                g.translate(-area.x, -area.y);
+                if (old != null) old.draw(g);
+                for (BoardItem item : items) {
+                    if (item.getBounds().intersects(area)) item.draw(g);
+                }
+            } finally {
+                g.dispose();
+            }
+            // e.g. the inside of a large outlined shape, nothing to keep there
+            if (old == null && isBlank(image)) continue;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            byCorner.put(corner, new Tile(area, out.toByteArray()));
+        }
+        return new BaseLayer(new ArrayList<>(byCorner.values()), seq, false);
+    }
+
+    // What a client holding the previous layer needs to get this one: the tiles flatten() painted again
+    public BaseLayer changesFrom(BaseLayer previous) {
+        if (previous == null) {
+            return this;
+        }
+        Set<Tile> carried = Collections.newSetFromMap(new IdentityHashMap<>());
+        carried.addAll(previous.tiles);
+        List<Tile> changed = new ArrayList<>();
+        for (Tile tile : tiles) {
+            if (!carried.contains(tile)) changed.add(tile);
+        }
+        return new BaseLayer(changed, seq, true);
+    }
+
+    // The layer to draw once this one is received on top of the current one
+    public BaseLayer applyTo(BaseLayer current) {
+        if (!partial || current == null) {
+            return this;
+        }
+        Map<Point, Tile> byCorner = new LinkedHashMap<>();
+        for (Tile tile : current.tiles) byCorner.put(tile.area.getLocation(), tile);
+        for (Tile tile : tiles) byCorner.put(tile.area.getLocation(), tile);
+        return new BaseLayer(new ArrayList<>(byCorner.values()), seq, false);
+    }
+
+    private static boolean isBlank(BufferedImage image) {
+        int white = Color.WHITE.getRGB();
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if (image.getRGB(x, y) != white) return false;
+            }
+        }
+        return true;
+    }
+
+    // Only the tiles inside the clip are decoded and drawn, e.g. for a region being repainted
+    public void draw(Graphics2D g) {
+        Rectangle clip = g.getClipBounds();
+        for (Tile tile : tiles) {
+            if (clip == null || clip.intersects(tile.area)) tile.draw(g);
+        }
+    }
+
+    // Frees the decoded tiles, the server only decodes a layer to flatten the next one over it
+    public void release() {
+        for (Tile tile : tiles) tile.release();
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public int getBytes() {
+        int bytes = 0;
+        for (Tile tile : tiles) bytes += tile.png.length;
+        return bytes;
+    }
+}
@@ -0,0 +1,286 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+public class BoardExporter {
+    // Headless export of board items to PNG or SVG, without a Canvas or a screen. The PNG is rendered
+    // in bands of rows and each band is compressed and written before the next is drawn, so only one
+    // band is ever in memory however large the export. The SVG is written one element per item.
+    // e.g. java BoardExporter board.wbd board.png 4
+    private static final int MAX_BAND_PIXELS = 4 << 20;    // 16 MB of ARGB per band
+    private static final int MAX_BAND_ROWS = 256;
+    private static final int IDAT_CHUNK_BYTES = 64 * 1024;
+    private static final int MARGIN = 10;
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java BoardExporter <boardFile> <output.png|output.svg> [scale]");
+            System.exit(1);
+        }
+        List<BoardItem> items = new ArrayList<>();
+        for (BoardItem item : BoardFile.open(Path.of(args[0]))) items.add(item);
+        export(items, Path.of(args[1]), args.length > 2 ? Double.parseDouble(args[2]) : 1);
+    }
+
+    // The format follows the file extension, the scale only applies to PNG
+    public static void export(List<? extends BoardItem> items, Path file, double scale) throws IOException {
+        Rectangle area = areaOf(items);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            if (file.toString().toLowerCase(Locale.ROOT).endsWith(".svg")) {
+                exportSvg(items, area, out);
+            } else {
+                exportPng(items, area, scale, out);
+            }
+        }
+        System.out.println("Exported " + items.size() + " items to " + file);
+    }
+
+    // Everything drawn, and the canvas origin so items keep their place
+    private static Rectangle areaOf(List<? extends BoardItem> items) {
+        Rectangle area = new Rectangle(0, 0, 1, 1);
+        for (BoardItem item : items) area.add(item.getBounds());
+        area.grow(MARGIN, MARGIN);
+        return area;
+    }
+
+    public static void exportPng(List<? extends BoardItem> items, Rectangle area, double scale, OutputStream out) throws IOException {
+        long width = (long) Math.ceil(area.width * scale);
+        long height = (long) Math.ceil(area.height * scale);
+        if (scale <= 0 || width > Integer.MAX_VALUE || height > Integer.MAX_VALUE || width * 4 + 1 > Integer.MAX_VALUE) {
+            throw new IOException("An export of " + width + "x" + height + " pixels is not possible");
+        }
+        Rectangle[] bounds = new Rectangle[items.size()];
+        for (int i = 0; i < bounds.length; i++) bounds[i] = items.get(i).getBounds();
+
+        DataOutputStream png = new DataOutputStream(out);
+        png.write(PNG_SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt((int) width);
+        ihdr.writeInt((int) height);
+        ihdr.writeByte(8);      // bits per channel
+        ihdr.writeByte(6);      // RGBA
+        ihdr.writeByte(0);      // deflate
+        ihdr.writeByte(0);      // adaptive filtering
+        ihdr.writeByte(0);      // not interlaced
+        writeChunk(png, "IHDR", header.toByteArray(), header.size());
+
+        int bandRows = (int) Math.max(1, Math.min(MAX_BAND_ROWS, MAX_BAND_PIXELS / width));
+        BufferedImage band = new BufferedImage((int) width, bandRows, BufferedImage.TYPE_INT_ARGB);
+        int[] row = new int[(int) width];
+        byte[] line = new byte[(int) width * 4 + 1];
+        Deflater deflater = new Deflater();
+        try (DeflaterOutputStream idat = new DeflaterOutputStream(new IdatStream(png), deflater, IDAT_CHUNK_BYTES)) {
+            for (int top = 0; top < height; top += bandRows) {
+                int rows = (int) Math.min(bandRows, height - top);
+                renderBand(band, items, bounds, area, scale, top);
+                for (int y = 0; y < rows; y++) {
+                    band.getRGB(0, y, (int) width, 1, row, 0, (int) width);
+                    encodeRow(row, line);
+                    idat.write(line);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        writeChunk(png, "IEND", new byte[0], 0);
+        png.flush();
+    }
+
+    // Draws the items that reach into the band, in painting order
+    private static void renderBand(BufferedImage band, List<? extends BoardItem> items, Rectangle[] bounds,
+                                   Rectangle area, double scale, int top) {
+        Graphics2D g = band.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, band.getWidth(), band.getHeight());
+            // Shifting in whole device pixels keeps each band pixel-identical to one big render
+            g.translate(0, -top);
+            g.scale(scale, scale);
+            g.translate(-area.x, -area.y);
+            Rectangle visible = new Rectangle(area.x, (int) Math.floor(area.y + top / scale),
+                    area.width, (int) Math.ceil(band.getHeight() / scale) + 1);
+            for (int i = 0; i < bounds.length; i++) {
+                if (bounds[i].intersects(visible)) items.get(i).draw(g);
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    // Sub filter, each byte is stored as the difference to the same channel of the pixel to its left.
+    // Runs of one colour, which is most of a whiteboard, come out as zeros and compress very well.
+    private static void encodeRow(int[] argb, byte[] line) {
+        line[0] = 1;
+        for (int x = 0; x < argb.length; x++) {
+            int p = argb[x];
+            int i = 1 + x * 4;
+            line[i] = (byte) (p >> 16);
+            line[i + 1] = (byte) (p >> 8);
+            line[i + 2] = (byte) p;
+            line[i + 3] = (byte) (p >>> 24);
+        }
+        // Backwards so every byte is still raw when its right-hand neighbour is encoded
+        for (int i = line.length - 1; i > 4; i--) {
+            line[i] -= line[i - 4];
+        }
+    }
+
+    private static void writeChunk(DataOutputStream png, String type, byte[] data, int length) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, 0, length);
+        png.writeInt(length);
+        png.write(name);
+        png.write(data, 0, length);
+        png.writeInt((int) crc.getValue());
+    }
+
+    // Cuts the compressed image data into IDAT chunks as it arrives
+    private static class IdatStream extends OutputStream {
+        private final DataOutputStream png;
+        private final byte[] buffer = new byte[IDAT_CHUNK_BYTES];
+        private int size = 0;
+
+        IdatStream(DataOutputStream png) {
+            this.png = png;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == buffer.length) flushChunk();
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (size == buffer.length) flushChunk();
+                int n = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, n);
+                size += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (size > 0) {
+                writeChunk(png, "IDAT", buffer, size);
+                size = 0;
+            }
+        }
+
+        // Leaves the underlying stream open, IEND still has to follow
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+    }
+
+    public static void exportSvg(List<? extends BoardItem> items, Rectangle area, OutputStream out) throws IOException {
+        Writer svg = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        svg.write(String.format(Locale.ROOT,
+                "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%d\" height=\"%d\" viewBox=\"%d %d %d %d\">\n",
+                area.width, area.height, area.x, area.y, area.width, area.height));
+        svg.write(String.format(Locale.ROOT, "<rect x=\"%d\" y=\"%d\" width=\"%d\" height=\"%d\" fill=\"white\"/>\n",
+                area.x, area.y, area.width, area.height));
+        for (BoardItem item : items) {
+            svg.write(svgElement(item));
+            svg.write('\n');
+        }
+        svg.write("</svg>\n");
+        svg.flush();
+    }
+
+    private static String svgElement(BoardItem item) {
+        return switch (item) {
+            // Same stroke as Shapes.draw: BasicStroke's square caps and mitred corners
+            case Shapes s -> String.format(Locale.ROOT,
+                    "<path d=\"%s\" fill=\"none\" %s stroke-width=\"%s\" stroke-linecap=\"square\" stroke-linejoin=\"miter\"/>",
+                    pathData(s.getOutline()), paint("stroke", s.getColor()), number(s.getStrokeWidth()));
+            case StrokeData s when s.size() == 1 -> String.format(Locale.ROOT,
+                    "<circle cx=\"%d\" cy=\"%d\" r=\"%s\" %s/>",
+                    s.getPoint(0).x, s.getPoint(0).y, number((int) s.getWidth() / 2.0), paint("fill", s.getColor()));
+            case StrokeData s -> {
+                StringBuilder points = new StringBuilder();
+                for (int i = 0; i < s.size(); i++) {
+                    if (i > 0) points.append(' ');
+                    points.append(s.getPoint(i).x).append(',').append(s.getPoint(i).y);
+                }
+                yield String.format(Locale.ROOT,
+                        "<polyline points=\"%s\" fill=\"none\" %s stroke-width=\"%s\" stroke-linecap=\"round\" stroke-linejoin=\"round\"/>",
+                        points, paint("stroke", s.getColor()), number(s.getWidth()));
+            }
+            case DrawText t -> String.format(Locale.ROOT,
+                    "<text x=\"%d\" y=\"%d\" font-family=\"Arial\" font-size=\"%d\" %s xml:space=\"preserve\">%s</text>",
+                    t.pos().x, t.pos().y, t.fontSize(), paint("fill", t.getColor()), escape(t.text()));
+            default -> "";
+        };
+    }
+
+    private static String pathData(Shape outline) {
+        StringBuilder d = new StringBuilder();
+        double[] c = new double[6];
+        for (PathIterator it = outline.getPathIterator(new AffineTransform()); !it.isDone(); it.next()) {
+            switch (it.currentSegment(c)) {
+                case PathIterator.SEG_MOVETO -> d.append("M").append(number(c[0])).append(' ').append(number(c[1]));
+                case PathIterator.SEG_LINETO -> d.append("L").append(number(c[0])).append(' ').append(number(c[1]));
+                case PathIterator.SEG_QUADTO -> d.append("Q").append(number(c[0])).append(' ').append(number(c[1]))
+                        .append(' ').append(number(c[2])).append(' ').append(number(c[3]));
+                case PathIterator.SEG_CUBICTO -> d.append("C").append(number(c[0])).append(' ').append(number(c[1]))
+                        .append(' ').append(number(c[2])).append(' ').append(number(c[3]))
+                        .append(' ').append(number(c[4])).append(' ').append(number(c[5]));
+                case PathIterator.SEG_CLOSE -> d.append("Z");
+                default -> {}
+            }
+        }
+        return d.toString();
+    }
+
+    private static String paint(String attribute, Color color) {
+        String paint = String.format(Locale.ROOT, "%s=\"rgb(%d,%d,%d)\"", attribute, color.getRed(), color.getGreen(), color.getBlue());
+        if (color.getAlpha() < 255) {
+            paint += String.format(Locale.ROOT, " %s-opacity=\"%s\"", attribute, number(color.getAlpha() / 255.0));
+        }
+        return paint;
+    }
+
+    private static String number(double value) {
+        return value == Math.rint(value) ? Long.toString((long) value) : String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    private static String escape(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (char ch : text.toCharArray()) {
+            switch (ch) {
+                case '<' -> sb.append("&lt;");
+                case '>' -> sb.append("&gt;");
+                case '&' -> sb.append("&amp;");
+                case '"' -> sb.append("&quot;");
+                default -> sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+}
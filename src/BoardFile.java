@@ -0,0 +1,274 @@
+import java.awt.*;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class BoardFile implements Iterable<BoardItem> {
+    // Saved boards. The file is memory-mapped when opened and an item is only decoded when it's asked
+    // for, so even a large board opens instantly. Layout, all big-endian:
+    //   header   magic, format version, flags, item count, offset of the index
+    //   records  one per item in painting order: kind, ARGB colour, then the kind's own fields.
+    //            Stroke points are stored as zigzag varint deltas from the previous point.
+    //   index    per item its record offset and bounds, to find or cull items without decoding them
+    private static final int MAGIC = 0x57425244;       // "WBRD"
+    public static final short VERSION = 1;
+    private static final int HEADER_BYTES = 20;
+    private static final int INDEX_ENTRY_BYTES = 24;
+    private static final int MAX_TEXT_BYTES = 64 * 1024;
+
+    private static final byte LINE = 1;
+    private static final byte RECTANGLE = 2;
+    private static final byte OVAL = 3;
+    private static final byte TRIANGLE = 4;
+    private static final byte TEXT = 5;
+    private static final byte STROKE = 6;
+
+    private final MappedByteBuffer map;
+    private final int count;
+    private final int indexOffset;
+
+    private BoardFile(MappedByteBuffer map, int count, int indexOffset) {
+        this.map = map;
+        this.count = count;
+        this.indexOffset = indexOffset;
+    }
+
+    public static BoardFile open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = ch.size();
+            if (length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+                throw new IOException("Not a board file: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (map.getInt(0) != MAGIC) {
+                throw new IOException("Not a board file: " + file);
+            }
+            short version = map.getShort(4);
+            if (version > VERSION) {
+                throw new IOException("Board file version " + version + " is newer than this program supports");
+            }
+            int count = map.getInt(8);
+            long indexOffset = map.getLong(12);
+            if (count < 0 || indexOffset < HEADER_BYTES || indexOffset + (long) count * INDEX_ENTRY_BYTES > length) {
+                throw new IOException("Corrupt board file: " + file);
+            }
+            return new BoardFile(map, count, (int) indexOffset);
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public Rectangle getBounds(int i) {
+        int at = indexEntry(i) + 8;
+        return new Rectangle(map.getInt(at), map.getInt(at + 4), map.getInt(at + 8), map.getInt(at + 12));
+    }
+
+    public BoardItem get(int i) throws IOException {
+        int offset = (int) map.getLong(indexEntry(i));
+        if (offset < HEADER_BYTES || offset >= indexOffset) {
+            throw new IOException("Corrupt board file, item " + i + " is out of range");
+        }
+        ByteBuffer in = map.duplicate().position(offset).limit(indexOffset);
+        try {
+            return readItem(in);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt board file, item " + i + " could not be read", e);
+        }
+    }
+
+    private int indexEntry(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + count);
+        }
+        return indexOffset + i * INDEX_ENTRY_BYTES;
+    }
+
+    // Items in painting order, decoded one by one as the iteration reaches them
+    @Override
+    public Iterator<BoardItem> iterator() {
+        return new Iterator<>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public BoardItem next() {
+                if (next >= count) throw new NoSuchElementException();
+                try {
+                    return get(next++);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            }
+        };
+    }
+
+    public static void write(Path file, Iterable<? extends BoardItem> items) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch)));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);                  // flags, none yet
+            out.writeInt(0);                    // count and index offset are filled in at the end
+            out.writeLong(0);
+
+            // Offsets and bounds are kept for the index, which goes after the records
+            ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+            DataOutputStream index = new DataOutputStream(indexBytes);
+            int count = 0;
+            for (BoardItem item : items) {
+                Rectangle r = item.getBounds();
+                index.writeLong(out.size());
+                index.writeInt(r.x);
+                index.writeInt(r.y);
+                index.writeInt(r.width);
+                index.writeInt(r.height);
+                writeItem(out, item);
+                count++;
+            }
+            long indexOffset = out.size();
+            indexBytes.writeTo(out);
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(12).putInt(count).putLong(indexOffset).flip();
+            ch.write(header, 8);
+        }
+    }
+
+    static void writeItem(DataOutputStream out, BoardItem item) throws IOException {
+        switch (item) {
+            case Shapes s -> {
+                out.writeByte(shapeKind(s));
+                out.writeInt(s.getColor().getRGB());
+                out.writeFloat(s.getStrokeWidth());
+                out.writeInt(s.getStartPoint().x);
+                out.writeInt(s.getStartPoint().y);
+                out.writeInt(s.getEndPoint().x);
+                out.writeInt(s.getEndPoint().y);
+            }
+            case DrawText t -> {
+                byte[] text = t.text().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(TEXT);
+                out.writeInt(t.getColor().getRGB());
+                out.writeInt(t.fontSize());
+                out.writeInt(t.pos().x);
+                out.writeInt(t.pos().y);
+                out.writeInt(text.length);
+                out.write(text);
+            }
+            case StrokeData s -> {
+                out.writeByte(STROKE);
+                out.writeInt(s.getColor().getRGB());
+                out.writeFloat(s.getWidth());
+                out.writeInt(s.size());
+                int x = 0, y = 0;
+                for (int i = 0; i < s.size(); i++) {
+                    Point p = s.getPoint(i);
+                    writeVarint(out, p.x - x);
+                    writeVarint(out, p.y - y);
+                    x = p.x;
+                    y = p.y;
+                }
+            }
+            default -> throw new IOException("Can't save a " + item.getClass().getSimpleName());
+        }
+    }
+
+    private static byte shapeKind(Shapes s) throws IOException {
+        return switch (s) {
+            case Lines l -> LINE;
+            case Rectangles r -> RECTANGLE;
+            case Ovals o -> OVAL;
+            case Triangles t -> TRIANGLE;
+            default -> throw new IOException("Can't save a " + s.getClass().getSimpleName());
+        };
+    }
+
+    static BoardItem readItem(ByteBuffer in) throws IOException {
+        byte kind = in.get();
+        Color color = new Color(in.getInt(), true);
+        if (kind == TEXT) {
+            int fontSize = in.getInt();
+            Point pos = new Point(in.getInt(), in.getInt());
+            int length = in.getInt();
+            if (length < 0 || length > MAX_TEXT_BYTES) {
+                throw new IOException("Text of " + length + " bytes is too long");
+            }
+            byte[] text = new byte[length];
+            in.get(text);
+            return new DrawText(new String(text, StandardCharsets.UTF_8), pos, fontSize, color);
+        }
+        float width = in.getFloat();
+        if (kind == STROKE) {
+            int points = in.getInt();
+            if (points < 0 || points > in.remaining()) {
+                throw new IOException("Stroke of " + points + " points doesn't fit the file");
+            }
+            StrokeData stroke = new StrokeData(color, width, false);
+            int x = 0, y = 0;
+            for (int i = 0; i < points; i++) {
+                x += readVarint(in);
+                y += readVarint(in);
+                stroke.addPoint(new Point(x, y));
+            }
+            return stroke;
+        }
+        Point a = new Point(in.getInt(), in.getInt());
+        Point b = new Point(in.getInt(), in.getInt());
+        return switch (kind) {
+            case LINE -> new Lines(a, b, width, color, false);
+            case RECTANGLE -> new Rectangles(a, b, width, color, false);
+            case OVAL -> new Ovals(a, b, width, color, false);
+            case TRIANGLE -> new Triangles(a, b, width, color, false);
+            default -> throw new IOException("Unknown item kind " + kind);
+        };
+    }
+
+    // Zigzag so small negative deltas stay small too, then 7 bits per byte
+    static void writeVarint(DataOutputStream out, int value) throws IOException {
+        int v = (value << 1) ^ (value >> 31);
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    static int readVarint(ByteBuffer in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            v |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("Malformed stroke point");
+    }
+
+    // The op that puts a loaded item on the board
+    public static DrawCommand toCommand(BoardItem item, String username) {
+        return switch (item) {
+            case Shapes s -> new DrawCommand(s, username);
+            case StrokeData s -> new DrawCommand(s, username);
+            default -> new DrawCommand((DrawText) item, username);
+        };
+    }
+}
@@ -0,0 +1,10 @@
+import java.awt.*;
+import java.io.Serializable;
+
+// Anything that ends up on the board: shapes, freehand strokes and text
+public interface BoardItem extends Serializable {
+    void draw(Graphics2D g);
+
+    // Area the item paints into, including its stroke width
+    Rectangle getBounds();
+}
@@ -0,0 +1,171 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class BoardLog {
+    // Finalized board ops in the order the server committed them. Only ops since the last CLEAR are kept,
+    // and once enough items have been removed the log is compacted down to the live ones, so a board
+    // that is being cleaned up shrinks. Seqs are ascending but not contiguous after a compaction.
+    // Guarded by the server's board lock.
+    private static final int COMPACT_MIN_REMOVED = 256;
+
+    private DisplayList ops = new DisplayList();
+    private long floorSeq = 0;      // deltas can only be served to clients that already have this seq
+    private long lastSeq = 0;
+    private int removedCount = 0;
+    private long bytes = 0;         // rough heap size of the ops held
+
+    public static boolean isBoardOp(DrawCommand cmd) {
+        return switch (cmd.getType()) {
+            case SHAPE, STROKE -> !cmd.getIntermediate();
+            case TEXT, CLEAR, REMOVE -> true;
+            default -> false;
+        };
+    }
+
+    // Stamps the op with the next seq, or keeps the seq it already has when relayed from the primary node
+    public long append(DrawCommand cmd) {
+        if (cmd.getSeq() == 0) {
+            cmd.setSeq(lastSeq + 1);
+        }
+        if (cmd.getType() == DrawCommand.CommandType.CLEAR) {
+            ops.clear();
+            removedCount = 0;
+            bytes = 0;
+            floorSeq = cmd.getSeq() - 1;
+        }
+        ops.add(cmd);
+        bytes += sizeOf(cmd);
+        lastSeq = cmd.getSeq();
+        return lastSeq;
+    }
+
+    public DrawCommand markRemoved(long seq) {
+        DrawCommand op = get(seq);
+        if (op == null || op.isRemoved()) {
+            return null;
+        }
+        op.setRemoved(true);
+        removedCount++;
+        return op;
+    }
+
+    // Ops after seq, or null when they can't be served as a delta and the caller has to replay everything
+    public Iterable<DrawCommand> since(long seq) {
+        if (seq < floorSeq || seq > lastSeq) {
+            return null;
+        }
+        return ops.from(indexAfter(seq));
+    }
+
+    public DrawCommand get(long seq) {
+        int i = indexAfter(seq - 1);
+        if (i < ops.size() && ops.get(i).getSeq() == seq) {
+            return ops.get(i);
+        }
+        return null;
+    }
+
+    // Index of the first op with a seq above the given one
+    private int indexAfter(long seq) {
+        int lo = 0, hi = ops.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ops.get(mid).getSeq() <= seq) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Drops removed items and their tombstones once they make up half the log. Clients older than
+    // the compaction fall back to a full replay, which never contained them anyway.
+    public void maybeCompact() {
+        if (removedCount < COMPACT_MIN_REMOVED || removedCount * 2 < ops.size()) {
+            return;
+        }
+        DisplayList live = new DisplayList();
+        bytes = 0;
+        for (DrawCommand op : ops) {
+            if (!op.isRemoved() && op.getType() != DrawCommand.CommandType.REMOVE) {
+                live.add(op);
+                bytes += sizeOf(op);
+            }
+        }
+        System.out.println("[Server] Compacted board log from " + ops.size() + " to " + live.size() + " ops.");
+        ops = live;
+        removedCount = 0;
+        floorSeq = lastSeq;
+    }
+
+    // The oldest ops that would have to go for no more than keepBytes to be left. The log is not changed,
+    // see dropThrough.
+    public List<DrawCommand> oldest(long keepBytes) {
+        List<DrawCommand> oldest = new ArrayList<>();
+        long left = bytes;
+        for (int i = 0; i < ops.size() && left > keepBytes; i++) {
+            DrawCommand op = ops.get(i);
+            left -= sizeOf(op);
+            oldest.add(op);
+        }
+        return oldest;
+    }
+
+    // Takes the ops up to and including seq off the log. Clients from before then fall back to a full replay.
+    public void dropThrough(long seq) {
+        int end = indexAfter(seq);
+        for (int i = 0; i < end; i++) {
+            DrawCommand op = ops.get(i);
+            bytes -= sizeOf(op);
+            if (op.isRemoved()) removedCount--;
+        }
+        if (end > 0) {
+            floorSeq = Math.max(floorSeq, seq);
+        }
+        DisplayList rest = new DisplayList();
+        for (DrawCommand op : ops.from(end)) rest.add(op);
+        ops = rest;
+    }
+
+    // Rough heap footprint of an op, close enough to keep the log within a budget
+    public static long sizeOf(DrawCommand op) {
+        return switch (op.getType()) {
+            case STROKE -> 120 + 40L * op.getStroke().size();
+            case SHAPE -> 200;
+            case TEXT -> 180 + 2L * op.getText().text().length();
+            default -> 100;
+        };
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getFloorSeq() {
+        return floorSeq;
+    }
+
+    // Forget how the board got here, e.g. after loading a snapshot that may itself have been compacted
+    public void truncateHistory() {
+        floorSeq = lastSeq;
+    }
+
+    // The whole board in paint order, this is what joins, snapshots and redraws walk
+    public Iterable<DrawCommand> all() {
+        return ops;
+    }
+
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    public int size() {
+        return ops.size();
+    }
+
+    public void reset() {
+        ops.clear();
+        removedCount = 0;
+        bytes = 0;
+        floorSeq = 0;
+        lastSeq = 0;
+    }
+}
@@ -0,0 +1,53 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class BoundedInputStream extends FilterInputStream {
+    // Counts the bytes read since startMessage() and fails the read once a single message goes over the cap,
+    // so a client can't make the server buffer an arbitrarily large object.
+    private final long maxMessageBytes;
+    private long count = 0;
+    private boolean exceeded = false;
+
+    public BoundedInputStream(InputStream in, long maxMessageBytes) {
+        super(in);
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    public void startMessage() {
+        count = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) consumed(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) consumed(n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        consumed(skipped);
+        return skipped;
+    }
+
+    private void consumed(long n) throws IOException {
+        count += n;
+        if (count > maxMessageBytes) {
+            exceeded = true;
+            throw new IOException("Message larger than " + maxMessageBytes + " bytes");
+        }
+    }
+
+    public boolean isExceeded() {
+        return exceeded;
+    }
+}
@@ -1,9 +1,11 @@
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.awt.image.BufferedImage;
 
 public class Canvas extends JPanel {
@@ -12,12 +14,13 @@ public class Canvas extends JPanel {
     private float strokeWidth = 5;
     private BufferedImage buffer;
     private Graphics2D bufferGraphics;
-    private final String font = "Arial";
     private String textToAdd = "";
     private int textFontSize = 12;
     private JoinWhiteBoard joinWhiteBoard;
-    private long lastSent = 0;
     private float currentStrokeStyle = 5;
+    private boolean eraseMode = false;
+    private StrokeData eraserPath;
+    private long currentItemId;         // id shared by every preview of the shape or stroke being drawn
 
     private String selectedShape = "Free Draw";
     private Color shapeColor = Color.BLACK;
@@ -33,7 +36,12 @@ public class Canvas extends JPanel {
         MouseAdapter handler = new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent e) {
-                if ("Text".equals(selectedShape)) {
+                if (eraseMode) {
+                    // The cursor outline has the eraser size as its radius
+                    eraserPath = new StrokeData(Color.WHITE, strokeWidth * 2, false);
+                    eraserPath.addPoint(e.getPoint());
+                    sendEraserPath();
+                } else if ("Text".equals(selectedShape)) {
                     if (textToAdd != null && !textToAdd.isEmpty()) {
                         DrawText dt = new DrawText(textToAdd, e.getPoint(), textFontSize, shapeColor);
                         joinWhiteBoard.addString(dt); // Send to others
@@ -45,36 +53,57 @@ public class Canvas extends JPanel {
                     Point startPoint = e.getPoint();
                     currentShape = createShape(selectedShape, startPoint, startPoint, shapeColor);
                     currentShape.setIntermediate(true);
-                    joinWhiteBoard.addShape(currentShape); // Send intermediate
+                    currentItemId = joinWhiteBoard.nextItemId();
+                    joinWhiteBoard.addShape(currentShape, currentItemId); // Send intermediate
                     repaint(); // Repaint to show intermediate
                 } else {
-                    // Free draw mode (or Erase mode)
+                    // Free draw mode
                     currentStroke = new StrokeData(shapeColor, strokeWidth, true);
                     currentStroke.addPoint(e.getPoint());
-                    joinWhiteBoard.addStroke(currentStroke); // Send intermediate
+                    currentItemId = joinWhiteBoard.nextItemId();
+                    joinWhiteBoard.addStroke(currentStroke, currentItemId); // Send intermediate
                     drawStrokeOnBuffer(currentStroke);       // Draw locally
                     repaint();
                 }
             }
 
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                joinWhiteBoard.setCursorPosition(e.getPoint());
+            }
+
+            @Override
+            public void mouseExited(MouseEvent e) {
+                joinWhiteBoard.setCursorPosition(null);
+            }
+
             @Override
             public void mouseDragged(MouseEvent e) {
-                if (!selectedShape.equals("Free Draw")) {
+                joinWhiteBoard.setCursorPosition(e.getPoint());
+                if (eraseMode) {
+                    if (eraserPath != null) {
+                        eraserPath.addPoint(e.getPoint());
+                        if (joinWhiteBoard.previewDue()) {
+                            sendEraserPath();
+                        }
+                    }
+                } else if (!selectedShape.equals("Free Draw")) {
                     if (currentShape != null) {
                         currentShape.setEndPoint(e.getPoint());
                         currentShape.setIntermediate(true);
 
-                        long now = System.currentTimeMillis();
-                        if (now - lastSent > 20) {
-                            joinWhiteBoard.addShape(currentShape);
-                            lastSent = now;
+                        if (joinWhiteBoard.previewDue()) {
+                            joinWhiteBoard.addShape(currentShape, currentItemId);
                         }
                         repaint(); // Repaint to show intermediate
                     }
                 } else {
                     if (currentStroke != null) {
                         currentStroke.addPoint(e.getPoint());
-                        joinWhiteBoard.addStroke(currentStroke); // Send intermediate
+                        if (joinWhiteBoard.previewDue()) {
+                            // Every preview carries the whole stroke so far, skipped ones lose nothing
+                            joinWhiteBoard.addStroke(currentStroke, currentItemId); // Send intermediate
+                        }
                         drawStrokeOnBuffer(currentStroke);       // Draw locally
                         repaint();
                     }
@@ -83,11 +112,17 @@ public class Canvas extends JPanel {
 
             @Override
             public void mouseReleased(MouseEvent e) {
-                if (!selectedShape.equals("Free Draw")) {
+                if (eraseMode) {
+                    if (eraserPath != null) {
+                        eraserPath.addPoint(e.getPoint());
+                        sendEraserPath();
+                        eraserPath = null;
+                    }
+                } else if (!selectedShape.equals("Free Draw")) {
                     if (currentShape != null) {
                         currentShape.setEndPoint(e.getPoint());
                         currentShape.setIntermediate(false);
-                        joinWhiteBoard.addShape(currentShape); // Send final
+                        joinWhiteBoard.addShape(currentShape, currentItemId); // Send final
                         drawShapeOnBuffer(currentShape); // Draw final shape locally
                         currentShape = null;
                         repaint();
@@ -96,7 +131,7 @@ public class Canvas extends JPanel {
                 } else {
                     if (currentStroke != null) {
                         currentStroke.setIntermediate(false);
-                        joinWhiteBoard.addStroke(currentStroke); // Send final
+                        joinWhiteBoard.addStroke(currentStroke, currentItemId); // Send final
                         currentStroke = null;
                     }
                 }
@@ -105,6 +140,29 @@ public class Canvas extends JPanel {
         };
         addMouseListener(handler);
         addMouseMotionListener(handler);
+
+        getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("ctrl Z"), "undo");
+        getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("ctrl Y"), "redo");
+        getActionMap().put("undo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                joinWhiteBoard.undo();
+            }
+        });
+        getActionMap().put("redo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                joinWhiteBoard.redo();
+            }
+        });
+    }
+
+    // Sends the eraser path so far and starts the next chunk where it ended, so no gap is left between them
+    private void sendEraserPath() {
+        joinWhiteBoard.sendErase(eraserPath);
+        Point last = eraserPath.getPoint(eraserPath.size() - 1);
+        eraserPath = new StrokeData(Color.WHITE, eraserPath.getWidth(), false);
+        eraserPath.addPoint(last);
     }
 
     private Shapes createShape(String type, Point start, Point end, Color color) {
@@ -119,9 +177,7 @@ public class Canvas extends JPanel {
     }
 
     protected void clearWhiteBoard() {
-        joinWhiteBoard.clearStrokes();
-        joinWhiteBoard.clearShapes();
-        joinWhiteBoard.clearStrings();
+        joinWhiteBoard.clearBoard();
         joinWhiteBoard.clearChats();
 
         if (bufferGraphics != null) {
@@ -151,8 +207,19 @@ public class Canvas extends JPanel {
         if (currentShape != null) {
             currentShape.draw(g2d);
         }
-        for (Shapes s : joinWhiteBoard.getIntermediateShapes()) {
-            s.draw(g2d);
+        for (BoardItem preview : joinWhiteBoard.getPreviews()) {
+            preview.draw(g2d);
+        }
+        drawRemoteCursors(g2d);
+    }
+
+    // Other users' cursors go over the buffer, never into it
+    private void drawRemoteCursors(Graphics2D g2d) {
+        for (Map.Entry<String, Point> e : joinWhiteBoard.getRemoteCursors().entrySet()) {
+            Point p = e.getValue();
+            g2d.setColor(Color.getHSBColor((e.getKey().hashCode() & 0xff) / 255f, 0.8f, 0.8f));
+            g2d.fillOval(p.x - 4, p.y - 4, 8, 8);
+            g2d.drawString(e.getKey(), p.x + 6, p.y - 6);
         }
     }
 
@@ -162,55 +229,67 @@ public class Canvas extends JPanel {
         // Clear buffer to white
         bufferGraphics.setColor(Color.WHITE);
         bufferGraphics.fillRect(0, 0, getWidth(), getHeight());
-        // Draw all permanent shapes FIRST
-        for (Shapes shape : joinWhiteBoard.getShapeList()) {
-            drawShapeOnBuffer(shape);
-        }
-        // Draw all text SECOND
-        for (DrawText dt : joinWhiteBoard.getStrings()) {
-            drawTextOnBuffer(dt);
+        drawBaseLayer();
+        // Draw everything in the order it was committed, so erasers only cover what came before them
+        for (DrawCommand op : joinWhiteBoard.getDisplayList()) {
+            if (!op.isRemoved()) drawItemOnBuffer(op.getItem());
         }
+    }
 
-        // Draw all strokes (including erasers) LAST
-        for (StrokeData stroke : joinWhiteBoard.getStrokes()) {
-            drawStrokeOnBuffer(stroke);
-        }
+    public void redrawBoard() {
+        redrawAllOnBuffer();
+        repaint();
     }
 
-    public void drawStrokeOnBuffer(StrokeData stroke) {
-        if (bufferGraphics == null || stroke == null) return;
-        bufferGraphics.setColor(stroke.getColor());
-        bufferGraphics.setStroke(new BasicStroke(stroke.getWidth(), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-        if (stroke.size() > 1) {
-            Point p1 = stroke.getPoint(0);
-            for (int i = 1; i < stroke.size(); i++) {
-                Point p2 = stroke.getPoint(i);
-                bufferGraphics.drawLine(p1.x, p1.y, p2.x, p2.y);
-                p1 = p2; // Move to the next point
+    // Items the server flattened go under everything else
+    private void drawBaseLayer() {
+        BaseLayer base = joinWhiteBoard.getBaseLayer();
+        if (base != null) base.draw(bufferGraphics);
+    }
+
+    // Repaints just one area of the buffer, e.g. where an undone item used to be
+    public void redrawRegion(Rectangle region) {
+        if (bufferGraphics == null || region == null) return;
+
+        Shape oldClip = bufferGraphics.getClip();
+        bufferGraphics.setClip(region);
+        bufferGraphics.setColor(Color.WHITE);
+        bufferGraphics.fillRect(region.x, region.y, region.width, region.height);
+        drawBaseLayer();
+        for (DrawCommand op : joinWhiteBoard.getIndex().query(region)) {
+            if (!op.isRemoved() && op.getItem().getBounds().intersects(region)) {
+                drawItemOnBuffer(op.getItem());
             }
-        } else if (stroke.size() == 1) {
-            Point p = stroke.getStartPoint();
-            int w = (int) stroke.getWidth();
-            bufferGraphics.fillOval(p.x - w/2, p.y - w/2, w, w);
         }
+        bufferGraphics.setClip(oldClip);
+    }
+
+    public void drawItemOnBuffer(BoardItem item) {
+        if (bufferGraphics == null || item == null) return;
+        item.draw(bufferGraphics);
+    }
+
+    public void drawStrokeOnBuffer(StrokeData stroke) {
+        drawItemOnBuffer(stroke);
     }
 
     public void drawShapeOnBuffer(Shapes shape) {
-        if (bufferGraphics == null || shape == null) return;
-        shape.draw(bufferGraphics);
+        drawItemOnBuffer(shape);
     }
 
     public void drawTextOnBuffer(DrawText dt) {
-        if (bufferGraphics == null || dt == null) return;
-        bufferGraphics.setColor(dt.getColor());
-        bufferGraphics.setFont(new Font(font, Font.PLAIN, dt.fontSize()));
-        bufferGraphics.drawString(dt.text(), dt.pos().x, dt.pos().y);
+        drawItemOnBuffer(dt);
     }
 
     public void setSelectedShape(String shape) {
         this.selectedShape = shape;
     }
 
+    public void setEraseMode(boolean eraseMode) {
+        this.eraseMode = eraseMode;
+        this.eraserPath = null;
+    }
+
     public void setShapeColor(Color c) {
         this.shapeColor = c;
     }
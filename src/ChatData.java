@@ -1,14 +1,28 @@
 public class ChatData {
     private String username;
     private String message;
+    private long id;
 
     public ChatData(String username, String message) {
+        this(username, message, 0);
+    }
+
+    public ChatData(String username, String message, long id) {
         this.username = username;
         this.message = message;
+        this.id = id;
     }
 
     public String getUsername() {
         return username;
     }
 
+    public String getMessage() {
+        return message;
+    }
+
+    public long getId() {
+        return id;
+    }
+
 }
@@ -0,0 +1,86 @@
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChatListModel extends AbstractListModel<ChatListModel.Line> {
+    // Lines shown in the chat pane. Messages are queued as they arrive and added to the list in one batch
+    // per frame, so a burst of chat costs one list update instead of one per message. Once the list is
+    // longer than the limit the oldest lines are dropped in the same batch.
+    private static final int FRAME_MS = 16;
+
+    private final int maxLines;
+    private final List<Line> lines = new ArrayList<>();
+    private final List<Line> pendingEnd = new ArrayList<>();
+    private final List<Line> pendingFront = new ArrayList<>();     // older history, newest first
+    private final Timer frame;
+    private long lastTrimmedId = 0;
+
+    public record Line(String text, boolean own, long chatId) {}
+
+    // onFrame is run once per frame with queued lines and is expected to call flush()
+    public ChatListModel(int maxLines, Runnable onFrame) {
+        this.maxLines = maxLines;
+        this.frame = new Timer(FRAME_MS, e -> onFrame.run());
+        this.frame.setRepeats(false);
+    }
+
+    // Both must be called on the EDT
+    public void append(Line line) {
+        pendingEnd.add(line);
+        if (!frame.isRunning()) frame.start();
+    }
+
+    public void prepend(Line line) {
+        pendingFront.add(line);
+        if (!frame.isRunning()) frame.start();
+    }
+
+    // Applies everything queued. Trimming is skipped while the user is scrolled back through history.
+    public void flush(boolean trim) {
+        frame.stop();
+        if (!pendingFront.isEmpty()) {
+            List<Line> older = new ArrayList<>(pendingFront.reversed());
+            pendingFront.clear();
+            lines.addAll(0, older);
+            fireIntervalAdded(this, 0, older.size() - 1);
+        }
+        if (!pendingEnd.isEmpty()) {
+            int first = lines.size();
+            lines.addAll(pendingEnd);
+            pendingEnd.clear();
+            fireIntervalAdded(this, first, lines.size() - 1);
+        }
+        if (trim && lines.size() > maxLines) {
+            List<Line> dropped = lines.subList(0, lines.size() - maxLines);
+            for (Line l : dropped) lastTrimmedId = Math.max(lastTrimmedId, l.chatId());
+            int last = dropped.size() - 1;
+            dropped.clear();
+            fireIntervalRemoved(this, 0, last);
+        }
+    }
+
+    // Highest chat id dropped from the top, 0 if none, so the history can be paged back in
+    public long getLastTrimmedId() {
+        return lastTrimmedId;
+    }
+
+    public void clear() {
+        frame.stop();
+        pendingEnd.clear();
+        pendingFront.clear();
+        lastTrimmedId = 0;
+        int size = lines.size();
+        lines.clear();
+        if (size > 0) fireIntervalRemoved(this, 0, size - 1);
+    }
+
+    @Override
+    public int getSize() {
+        return lines.size();
+    }
+
+    @Override
+    public Line getElementAt(int index) {
+        return lines.get(index);
+    }
+}
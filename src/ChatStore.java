@@ -0,0 +1,122 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChatStore {
+    // Chat history for one board. The newest messages sit in a ring buffer, older ones are spilled to a
+    // file on disk and only read back when a client pages through history. Ids are handed out in order
+    // and never reused, a clear just moves the oldest id still available past everything sent so far.
+    private final ChatData[] ring;
+    private int head = 0;               // slot of the oldest message in memory
+    private int count = 0;
+    private long firstId = 1;           // oldest id still available, in memory or on disk
+    private long nextId = 1;
+
+    private RandomAccessFile spill;
+    private final List<Long> spillOffsets = new ArrayList<>();   // file offset of message firstId + i
+
+    public ChatStore(int capacity) {
+        this.ring = new ChatData[capacity];
+    }
+
+    // Adds a message and returns its id. Messages relayed from the primary node keep the id they were given there.
+    public synchronized long add(ChatData chat, long id) {
+        if (id <= 0) {
+            id = nextId;
+        } else if (id != nextId) {
+            // Ids jumped, e.g. the window from a snapshot, anything older is only held by the primary node
+            clear();
+            firstId = id;
+        }
+        nextId = id + 1;
+        ChatData stored = new ChatData(chat.getUsername(), chat.getMessage(), id);
+
+        if (count == ring.length) {
+            spillOut(ring[head]);
+            ring[head] = stored;
+            head = (head + 1) % ring.length;
+        } else {
+            ring[(head + count) % ring.length] = stored;
+            count++;
+        }
+        return id;
+    }
+
+    // The last n messages, oldest first
+    public synchronized List<ChatData> recent(int n) {
+        List<ChatData> result = new ArrayList<>();
+        for (int i = Math.max(0, count - n); i < count; i++) {
+            result.add(ring[(head + i) % ring.length]);
+        }
+        return result;
+    }
+
+    // Up to n messages with ids before the given one, newest first
+    public synchronized List<ChatData> page(long beforeId, int n) {
+        List<ChatData> result = new ArrayList<>();
+        long oldestInMemory = nextId - count;
+        for (long id = Math.min(beforeId, nextId) - 1; id >= firstId && result.size() < n; id--) {
+            if (id >= oldestInMemory) {
+                result.add(ring[(int) ((head + (id - oldestInMemory)) % ring.length)]);
+            } else {
+                ChatData chat = readSpilled(id);
+                if (chat == null) break;
+                result.add(chat);
+            }
+        }
+        return result;
+    }
+
+    public synchronized long getFirstId() {
+        return firstId;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < count; i++) ring[(head + i) % ring.length] = null;
+        head = 0;
+        count = 0;
+        firstId = nextId;
+        spillOffsets.clear();
+        try {
+            if (spill != null) spill.setLength(0);
+        } catch (IOException e) {
+            System.err.println("[Server] Error truncating chat history file: " + e.getMessage());
+        }
+    }
+
+    private void spillOut(ChatData chat) {
+        try {
+            if (spill == null) {
+                File file = File.createTempFile("whiteboard-chat", ".log");
+                file.deleteOnExit();
+                spill = new RandomAccessFile(file, "rw");
+            }
+            long offset = spill.length();
+            spill.seek(offset);
+            spill.writeUTF(chat.getUsername() != null ? chat.getUsername() : "");
+            spill.writeUTF(chat.getMessage() != null ? chat.getMessage() : "");
+            spillOffsets.add(offset);
+        } catch (IOException e) {
+            // History before this point can no longer be paged, the recent window is unaffected
+            System.err.println("[Server] Error spilling chat history to disk: " + e.getMessage());
+            spillOffsets.clear();
+            firstId = chat.getId() + 1;
+        }
+    }
+
+    private ChatData readSpilled(long id) {
+        int i = (int) (id - firstId);
+        if (i < 0 || i >= spillOffsets.size()) {
+            return null;
+        }
+        try {
+            spill.seek(spillOffsets.get(i));
+            return new ChatData(spill.readUTF(), spill.readUTF(), id);
+        } catch (IOException e) {
+            System.err.println("[Server] Error reading chat history from disk: " + e.getMessage());
+            return null;
+        }
+    }
+}
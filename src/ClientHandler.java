@@ -1,17 +1,43 @@
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ClientHandler implements Runnable {
     private final Socket socket;
     private final CreateWhiteBoard server;
+    private static final int MAX_ARRAY_LENGTH = 1_000_000;
+    private static final int MAX_OBJECT_DEPTH = 32;
+    private static final int MAX_QUEUED = 10_000;
+    private static final long CLOSE_WAIT_MS = 1000;
+    private static final long ERASE_NOTICE_MS = 5000;
+
+    private BoundedInputStream bounded;
     private ObjectInputStream in;
     private ObjectOutputStream out;
+    private OutputStream rawOut;                // what out writes to, pre-encoded ops are copied straight onto it
+    private final byte[] copyBuffer = new byte[8192];
     private DrawCommand drawCommand;
     private String username;
-    private boolean isApproved = false;
+    private volatile boolean isApproved = false;
+    private volatile boolean sessionEnded = false;
+    private String sessionToken;
+    private final AtomicBoolean presenceInFlight = new AtomicBoolean(false);
+    private final RateLimiter limiter = new RateLimiter();
+    private long lastEraseNotice = 0;           // when the user was last told part of an eraser drag was dropped
     private static long nextId = 0;
     private final long handlerId;
+    private volatile long lastHeard = System.currentTimeMillis();     // when the last message was read, see ConnectionReaper
+
+    // Everything for the client goes through this queue and out on the writer thread, in order, so a
+    // broadcast under the board lock never waits on a slow client's socket
+    private record Outgoing(DrawCommand cmd, ByteBuffer wire, boolean presence) {}
+    private static final Outgoing CLOSE = new Outgoing(null, null, false);
+    private final ArrayDeque<Outgoing> outgoing = new ArrayDeque<>();
+    private volatile Thread writer;
 
 
     public ClientHandler(Socket socket, CreateWhiteBoard server) {
@@ -26,25 +52,50 @@ public class ClientHandler implements Runnable {
     @Override
     public void run() {
         try {
-            out = new ObjectOutputStream(socket.getOutputStream());
+            rawOut = socket.getOutputStream();
+            out = new ObjectOutputStream(rawOut);
             out.flush();
-            in = new ObjectInputStream(socket.getInputStream());
+            bounded = new BoundedInputStream(socket.getInputStream(), CreateWhiteBoard.MAX_MESSAGE_BYTES);
+            in = new ObjectInputStream(bounded);
+            // Array lengths are checked before anything is allocated, the byte cap alone wouldn't stop a huge one
+            in.setObjectInputFilter(ObjectInputFilter.Config.createFilter("maxarray=" + MAX_ARRAY_LENGTH + ";maxdepth=" + MAX_OBJECT_DEPTH));
 
-            drawCommand = (DrawCommand) in.readObject();
+            drawCommand = readMessage();
 
             if (drawCommand.getType() != DrawCommand.CommandType.HELLO) {
                 System.out.println("[Server] New client failed to identify. Connection rejected.");
             }
+            negotiateCompression();
+            writer = new Thread(this::writeQueued, "client-writer-" + handlerId);
+            writer.setDaemon(true);
+            writer.start();
 
             System.out.println("[Server] " + drawCommand.getUsername() + " connected.");
             this.username = drawCommand.getUsername();
 
-            if (server.userCount() == 0) {
+            if (server.getSessions().resume(drawCommand.getToken(), this.username, this)) {
+                System.out.println("[Server] " + this.username + " resumed their session.");
+                this.sessionToken = drawCommand.getToken();
+                this.isApproved = true;
+                setupNewUser(true);
+
+            } else if (server.userCount() == 0) {
                 System.out.println("[Server] " + this.username + " approved as Manager.");
                 server.setManagerUsername(this.username);
                 this.isApproved = true;
-                server.addClient(this);
-                setupNewUser();
+                server.publish(new DrawCommand(DrawCommand.CommandType.MGRINFO, this.username), this);
+                setupNewUser(false);
+
+            } else if (!server.getRoster().contains(this.username)
+                    && server.getApprovalPolicy().autoApproves(this.username, drawCommand.getJoinToken())) {
+                // Allowlisted or holding the join token, the manager is not asked
+                System.out.println("[Server] " + this.username + " auto-approved.");
+                approve();
+
+            } else if (server.pendingCount() >= server.getMaxPending()) {
+                System.out.println("[Server] Too many pending join requests, turning away " + this.username + ".");
+                server.getMetrics().rejectedPending();
+                deny("Too many people are waiting to join, please try again later.");
 
             } else {
                 System.out.println("[Server] " + this.username + " is pending approval.");
@@ -59,7 +110,24 @@ public class ClientHandler implements Runnable {
             }
 
             DrawCommand incoming;
-            while ((incoming = (DrawCommand) in.readObject()) != null) {
+            while ((incoming = readMessage()) != null) {
+
+                if (!limiter.allow(incoming.getType())) {
+                    server.getMetrics().rateLimited(incoming.getType());
+                    if (limiter.isRepeatOffender()) {
+                        System.out.println("[Server] Disconnecting " + this.username + " for flooding.");
+                        server.getMetrics().offenderDisconnected();
+                        sessionEnded = true;
+                        sendCommand(new DrawCommand(DrawCommand.CommandType.BYE, "Server", "You were disconnected for sending too many messages."));
+                        break;
+                    }
+                    if (BoardLog.isBoardOp(incoming)) {
+                        reject(incoming);
+                    } else if (incoming.getType() == DrawCommand.CommandType.ERASE) {
+                        rejectErase();
+                    }
+                    continue;
+                }
 
                 if (this.username.equals(server.getManagerUsername()) &&
                         incoming.getType() == DrawCommand.CommandType.AUTH) {
@@ -80,37 +148,37 @@ public class ClientHandler implements Runnable {
                         break;
 
                     case TEXT:
-                        server.getStrings().add(incoming.getText());
-                        server.broadcast(incoming, this);
-                        break;
-
                     case CLEAR:
-                        server.getShapeList().clear();
-                        server.getStrings().clear();
-                        server.getStrokes().clear();
-                        server.clearChats();
-                        server.broadcast(incoming, this);
+                    case CHAT:
+                        server.publish(incoming, this);
                         break;
 
-                    case SHAPE:
-                        Shapes receivedShape = incoming.getShape();
+                    case CHATPAGE:
+                        sendChatPage(incoming.getChatId());
+                        break;
 
-                        if (!incoming.getIntermediate()) {
-                            server.getShapeList().add(incoming.getShape());
+                    case PRESENCE:
+                        // Only the position is taken from the client, the name is always the connection's own
+                        PresenceFrame cursor = incoming.getPresence();
+                        if (cursor != null && cursor.size() > 0) {
+                            server.getPresence().update(username, cursor.getQuantizedX(0), cursor.getQuantizedY(0));
                         }
-                        server.broadcast(incoming, this);
                         break;
 
-                    case STROKE:
-                        if (!incoming.getIntermediate()) {
-                            server.getStrokes().add(incoming.getStroke());
-                        }
-                        server.broadcast(incoming, this);
+                    case UNDO:
+                    case REDO:
+                    case ERASE:
+                        // No origin, the requester has nothing drawn yet and needs the resulting op too
+                        server.publish(incoming, null);
                         break;
 
-                    case CHAT:
-                        server.addChat(new ChatData(incoming.getUsername(), incoming.getChatText()));
-                        server.broadcast(incoming, this);
+                    case SHAPE:
+                    case STROKE:
+                        if (incoming.getIntermediate()) {
+                            server.preview(incoming, this);
+                        } else {
+                            server.publish(incoming, this);
+                        }
                         break;
 
                     case AUTH:
@@ -118,6 +186,17 @@ public class ClientHandler implements Runnable {
                         break;
 
                     case ACTIVE:
+                        // Heartbeat, readMessage has already noted the connection is alive
+                        break;
+
+                    case PING:
+                        // Echoed as it is, the client times the round trip
+                        sendCommand(incoming);
+                        break;
+
+                    case USER:
+                        // The client missed a roster delta and asks for a fresh snapshot
+                        sendCommand(server.getRoster().snapshot());
                         break;
 
                     case KICK:
@@ -137,34 +216,48 @@ public class ClientHandler implements Runnable {
                         throw new IllegalStateException("Unexpected value: " + incoming.getType());
                 }
                 if (incoming.getType() == DrawCommand.CommandType.BYE) {
+                    sessionEnded = true;
                     break;
                 }
             }
         } catch(EOFException eof){
             System.out.println("[Server] " + drawCommand.getUsername() + " disconnected.");
         } catch(Exception e){
+            if (bounded != null && bounded.isExceeded()) {
+                server.getMetrics().oversized();
+                sessionEnded = true;
+            }
             System.err.println("[ClientHandler] Error: " + e.getMessage());
         }  finally {
+            server.connectionClosed(this);
             try {
                 String handlerUser = (this.username != null ? this.username : "UNKNOWN");
                 String usernameToRemove = this.username;
                 boolean wasApproved = this.isApproved;
 
                 server.removeClient(this);
-                if (usernameToRemove != null) {
-                    server.removePendingClient(usernameToRemove);
+                if (usernameToRemove != null && server.removePendingClient(usernameToRemove, this)) {
+                    // Take the request off the manager's pending list
+                    server.sendToUser(new DrawCommand(DrawCommand.CommandType.AUTH, usernameToRemove, "GONE"), server.getManagerUsername());
                 }
 
                 if (wasApproved && usernameToRemove != null) {
-                    server.removeUser(usernameToRemove);
-                    DrawCommand disconnectMsg = new DrawCommand(DrawCommand.CommandType.BYE, usernameToRemove, (ArrayList<String>) null);
-                    server.broadcast(disconnectMsg, this);
+                    server.getPresence().hide(usernameToRemove);
+                    // A dropped connection keeps its place for the grace period, a BYE or kick leaves at once
+                    if (!sessionEnded && server.getSessions().detach(sessionToken, this, () -> removeFromBoard(usernameToRemove))) {
+                        System.out.println("[Server] Holding session of " + usernameToRemove + " for resume.");
+                    } else if (server.getSessions().end(sessionToken, this)) {
+                        removeFromBoard(usernameToRemove);
+                    }
                 } else if (usernameToRemove != null) {
                     System.out.println("[Server Cleanup][ID:" + handlerId + "] Cleaned up non-approved user: " + usernameToRemove);
                 } else {
                     System.out.println("[Server Cleanup][ID:" + handlerId + "] Cleaned up handler with no username.");
                 }
                 System.out.println("[Server Cleanup][ID:" + handlerId + "] Ensuring socket is closed.");
+                // Whatever is still queued, e.g. the BYE for a flooder, gets a moment to go out first
+                closeAfterSent();
+                if (writer != null) writer.join(CLOSE_WAIT_MS);
                 closeSocket();
             } catch (Exception e) {
                 System.err.println("[Server Cleanup][ID:" + handlerId + "] EXCEPTION in finally block for user " + (this.username != null ? this.username : "UNKNOWN") + ": " + e.getMessage());
@@ -173,57 +266,159 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    public void setupNewUser() {
-        server.addUser(drawCommand.getUsername());
-        for(String u : server.getUsers()){
-            sendCommand(new DrawCommand(DrawCommand.CommandType.USER, u, drawCommand.getUserList()));
+    private void removeFromBoard(String user) {
+        DrawCommand disconnectMsg = new DrawCommand(DrawCommand.CommandType.BYE, user, (ArrayList<String>) null);
+        server.publish(disconnectMsg, this);
+    }
+
+    // A resumed user is still on the roster, so nobody else needs to hear about them
+    public void setupNewUser(boolean resumed) {
+        if (!resumed) {
+            sessionToken = server.getSessions().issue(username, this);
+            // Joined through the board path so every node gives the join the same roster version
+            server.publish(new DrawCommand(DrawCommand.CommandType.USER, username), null);
         }
+        sendCommand(new DrawCommand(DrawCommand.CommandType.SESSION, username, sessionToken));
+
+        // Held so no op can be committed while the board is being replayed
+        synchronized (server.getBoardLock()) {
+            // One roster snapshot, the deltas committed after it follow as USER and BYE
+            sendCommand(server.getRoster().snapshot());
+            sendCommand(new DrawCommand(DrawCommand.CommandType.MGRINFO, server.getManagerUsername(), server.getBoardId()));
+
+            // Only the recent window, older messages are fetched a page at a time as the client scrolls up
+            List<ChatData> window = server.getChats().recent(CreateWhiteBoard.CHAT_JOIN_WINDOW);
+            for (ChatData c : window) sendChat(c);
+            sendChatPageEnd(window.isEmpty() ? 0 : window.get(0).getId());
+            if (!resumed) {
+                sendCommand(new DrawCommand(DrawCommand.CommandType.CHAT, drawCommand.getUsername(), "Welcome to the chat, " + drawCommand.getUsername() + "."));
+            }
 
-        server.broadcast(new DrawCommand(DrawCommand.CommandType.USER, drawCommand.getUsername(), drawCommand.getUserList()), this );
-        sendCommand(new DrawCommand(DrawCommand.CommandType.CLEAR));
-        sendCommand(new DrawCommand(DrawCommand.CommandType.MGRINFO, server.getManagerUsername()));
+            // A client that already holds part of this board (HELLO carries its board id and last seq) only gets what it missed
+            Iterable<DrawCommand> missed = null;
+            if (drawCommand.getSeq() > 0 && server.getBoardId().equals(drawCommand.getChatText())) {
+                missed = server.getBoardLog().since(drawCommand.getSeq());
+            }
+            if (missed != null) {
+                System.out.println("[Server] Resuming " + username + " from seq " + drawCommand.getSeq() + ", " + (server.getBoardLog().getLastSeq() - drawCommand.getSeq()) + " ops missed.");
+                // Whole, the client may have missed some of the tile changes the layer has had since
+                if (server.getBaseLayer() != null) sendCommand(new DrawCommand(server.getBaseLayer()));
+                for (DrawCommand op : missed) sendCommand(op);
+            } else {
+                sendBoardState();
+            }
+            // Only now, so no live op can overtake the catch-up and make the client skip the ops before it
+            server.addClient(this);
+        }
+    }
+
+    // Messages before the given id, newest first so the client can prepend them as they arrive
+    private void sendChatPage(long beforeId) {
+        List<ChatData> page = server.getChats().page(beforeId, CreateWhiteBoard.CHAT_PAGE_SIZE);
+        for (ChatData c : page) sendChat(c);
+        sendChatPageEnd(page.isEmpty() ? 0 : page.get(page.size() - 1).getId());
+    }
+
+    private void sendChat(ChatData c) {
+        DrawCommand chat = new DrawCommand(DrawCommand.CommandType.CHAT, c.getUsername(), c.getMessage());
+        chat.setChatId(c.getId());
+        sendCommand(chat);
+    }
 
-        for(ChatData c : server.getChats()) {sendCommand(new DrawCommand(DrawCommand.CommandType.CHAT, c.getUsername(), c.getUsername()));}
-        sendCommand(new DrawCommand(DrawCommand.CommandType.CHAT, drawCommand.getUsername(), "Welcome to the chat, " + drawCommand.getUsername() + "."));
+    // Tells the client the oldest message it now holds, 0 once there is nothing older left to fetch
+    private void sendChatPageEnd(long oldestId) {
+        DrawCommand end = new DrawCommand(DrawCommand.CommandType.CHATPAGE, username);
+        end.setChatId(oldestId > server.getChats().getFirstId() ? oldestId : 0);
+        sendCommand(end);
+    }
 
-        for (Shapes s : server.getShapeList()) {
-            if (!s.getIntermediate()) {
-                sendCommand(new DrawCommand(s));
+    // Resends the whole board, also used when a cluster node has replaced its state from a snapshot
+    public void sendBoardState() {
+        sendCommand(new DrawCommand(DrawCommand.CommandType.CLEAR));
+        if (server.getBaseLayer() != null) {
+            sendCommand(new DrawCommand(server.getBaseLayer()));
+        }
+        for (DrawCommand op : server.getBoardLog().all()) {
+            // Removed items and their tombstones only matter to clients that already hold them
+            if (op.isRemoved() || op.getType() == DrawCommand.CommandType.REMOVE) continue;
+            sendCommand(op);
+        }
+    }
+
+    // Tells the client an op it has already drawn was not committed, so it takes it off its board again.
+    // A CLEAR can't be taken back locally, the client is sent the whole board instead.
+    public void reject(DrawCommand op) {
+        DrawCommand ack = new DrawCommand(DrawCommand.CommandType.ACK, "Server", "REJECTED");
+        ack.setOpId(op.getOpId());
+        sendCommand(ack);
+        if (op.getType() == DrawCommand.CommandType.CLEAR) {
+            synchronized (server.getBoardLock()) {
+                sendBoardState();
             }
         }
-        for(DrawText t : server.getStrings()){sendCommand(new DrawCommand(t));}
-        for(StrokeData s : server.getStrokes()){sendCommand(new DrawCommand(s));}
+    }
+
+    // The eraser isn't drawn locally, so a dropped part of a drag would just leave items standing.
+    // The user is told, once per few seconds rather than for every chunk of the drag.
+    private void rejectErase() {
+        long now = System.currentTimeMillis();
+        if (now - lastEraseNotice < ERASE_NOTICE_MS) {
+            return;
+        }
+        lastEraseNotice = now;
+        sendCommand(new DrawCommand(DrawCommand.CommandType.CHAT, "Server", "You are erasing too fast, part of your eraser stroke was ignored."));
+    }
+
+    public void approve() {
+        this.isApproved = true;
+        setupNewUser(false);
+    }
+
+    // The user is leaving for good (kicked), so the session must not be held for resume
+    public void endSession() {
+        sessionEnded = true;
+    }
+
+    public void deny(String reason) {
+        sendCommand(new DrawCommand(DrawCommand.CommandType.BYE, "Server", reason));
+        closeAfterSent();
     }
 
     private void handleAuthResponse(DrawCommand cmd) {
         String targetUsername = cmd.getUsername();
         String response = cmd.getChatText();
-        ClientHandler pendingHandler = server.getPendingClient(targetUsername);
 
-        if (pendingHandler == null) {
+        // The user may be waiting on another node of the cluster
+        if (!server.resolvePendingClient(targetUsername, response) && !server.route(cmd)) {
             System.out.println("[Server] Manager responded for " + targetUsername + ", but they are no longer pending.");
-            return;
         }
+    }
 
-        server.removePendingClient(targetUsername);
-
-        if ("YES".equals(response)) {
-            System.out.println("[Server] Manager APPROVED " + targetUsername);
-            pendingHandler.isApproved = true;
-            server.addClient(pendingHandler);
-            pendingHandler.setupNewUser();
-
-        } else {
-            System.out.println("[Server] Manager DENIED " + targetUsername);
-            DrawCommand denial = new DrawCommand(DrawCommand.CommandType.BYE, "Server", "Your request was denied by the manager.");
-            pendingHandler.sendCommand(denial);
-
-            try {
-                pendingHandler.socket.close();
-            } catch (IOException e) {
-                System.err.println("Error closing denied client socket: " + e.getMessage());
-            }
+    // Answers the client's HELLO with the codec accepted, and switches both directions over to it.
+    // The client sends nothing else until it has read the answer, so no compressed bytes are read as plain ones.
+    private synchronized void negotiateCompression() throws IOException {
+        String codec = server.isCompressionEnabled() && StreamCompression.isSupported(drawCommand.getCompression())
+                ? drawCommand.getCompression() : null;
+        DrawCommand reply = new DrawCommand(DrawCommand.CommandType.HELLO, "Server", (ArrayList<String>) null);
+        reply.setCompression(codec);
+        write(reply, null);     // the writer thread only starts once the codec is settled
+        if (codec == null) {
+            return;
         }
+        rawOut = StreamCompression.compress(socket.getOutputStream());
+        out = new ObjectOutputStream(rawOut);
+        out.flush();
+        // The size cap applies to the inflated bytes, so a small compressed message can't expand past it
+        bounded = new BoundedInputStream(StreamCompression.decompress(socket.getInputStream()), CreateWhiteBoard.MAX_MESSAGE_BYTES);
+        in = new ObjectInputStream(bounded);
+        in.setObjectInputFilter(ObjectInputFilter.Config.createFilter("maxarray=" + MAX_ARRAY_LENGTH + ";maxdepth=" + MAX_OBJECT_DEPTH));
+    }
+
+    private DrawCommand readMessage() throws IOException, ClassNotFoundException {
+        bounded.startMessage();
+        DrawCommand msg = (DrawCommand) in.readObject();
+        lastHeard = System.currentTimeMillis();
+        return msg;
     }
 
     public void closeSocket() throws IOException {
@@ -239,16 +434,114 @@ public class ClientHandler implements Runnable {
         return username;
     }
 
+    public long getHandlerId() {
+        return handlerId;
+    }
+
+    public long getLastHeard() {
+        return lastHeard;
+    }
+
+    // The encoded op starts with a reset, so the client's stream and ours agree again as soon as it's read,
+    // and our next writeObject starts with a reset of its own. out has been flushed after every message.
+    private void writeEncoded(ByteBuffer wire) throws IOException {
+        ByteBuffer bytes = wire.duplicate();
+        while (bytes.hasRemaining()) {
+            int n = Math.min(bytes.remaining(), copyBuffer.length);
+            bytes.get(copyBuffer, 0, n);
+            rawOut.write(copyBuffer, 0, n);
+        }
+        rawOut.flush();
+    }
+
+    // Presence is skipped while the previous frame is still waiting to be written
+    public void offerPresence(DrawCommand frame, ByteBuffer wire) {
+        if (!presenceInFlight.compareAndSet(false, true)) {
+            return;
+        }
+        enqueue(new Outgoing(frame, wire, true));
+    }
+
     public void sendCommand(DrawCommand cmd) {
+        sendCommand(cmd, cmd.getWire());
+    }
+
+    // wire is the command already encoded, shared by every client it is sent to
+    public void sendCommand(DrawCommand cmd, ByteBuffer wire) {
+        enqueue(new Outgoing(cmd, wire, false));
+    }
+
+    // The socket is closed once everything queued before this has been written, e.g. after a BYE
+    public void closeAfterSent() {
+        enqueue(CLOSE);
+    }
+
+    public void awaitClosed(long millis) throws InterruptedException {
+        Thread w = writer;
+        if (w != null) w.join(millis);
+    }
+
+    // Only queues, so it's safe under the board lock. A client this far behind is not reading any more,
+    // it is dropped and catches up from the board log if it resumes.
+    private void enqueue(Outgoing next) {
+        boolean overflow = false;
+        synchronized (outgoing) {
+            if (outgoing.size() >= MAX_QUEUED) {
+                outgoing.clear();
+                overflow = true;
+            } else {
+                outgoing.add(next);
+                outgoing.notifyAll();
+            }
+        }
+        if (overflow) {
+            System.out.println("[Server] " + username + " is " + MAX_QUEUED + " messages behind, closing the connection.");
+            try {
+                closeSocket();
+            } catch (IOException e) {
+                System.err.println("[ClientHandler] Error closing connection of " + username + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void writeQueued() {
         try {
-            if (out != null) {
-                out.reset();
-                out.writeObject(cmd);
-                out.flush();
+            while (true) {
+                Outgoing next;
+                synchronized (outgoing) {
+                    while (outgoing.isEmpty()) {
+                        outgoing.wait();
+                    }
+                    next = outgoing.poll();
+                }
+                if (next == CLOSE) {
+                    closeSocket();
+                    return;
+                }
+                try {
+                    write(next.cmd(), next.wire());
+                } finally {
+                    if (next.presence()) presenceInFlight.set(false);
+                }
             }
+        } catch (InterruptedException e) {
+            // the handler is done with this connection
         } catch (IOException e) {
-            System.err.println("[ClientHandler] Error sending to " + drawCommand.getUsername() + ": " + e.getMessage());
+            System.err.println("[ClientHandler] Error sending to " + username + ": " + e.getMessage());
+            try {
+                closeSocket();      // the read loop ends and cleans up as for any dropped connection
+            } catch (IOException ignored) {
+            }
         }
     }
-}
 
+    private void write(DrawCommand cmd, ByteBuffer wire) throws IOException {
+        if (wire != null) {
+            writeEncoded(wire);
+        } else {
+            out.reset();
+            out.writeObject(cmd);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class ClusterNode {
+    // Nodes form a star around one primary. Secondaries hand every finalized op to the primary, which
+    // applies them in one order and sends them back out, so every node sees the same board history.
+    private static final long RECONNECT_DELAY_MS = 2000;
+    private static final int MAX_UNSENT = 10_000;
+
+    private final CreateWhiteBoard server;
+    private final String nodeId;
+    private final int clusterPort;
+    private final String primaryHost;
+    private final int primaryPort;
+    private final List<PeerLink> links = new CopyOnWriteArrayList<>();
+    private ServerSocket serverSocket;
+    private volatile PeerLink primaryLink;
+    // Ops submitted while the primary is unreachable, sent in order once the link is back
+    private final ArrayDeque<RelayEnvelope> unsent = new ArrayDeque<>();
+    private volatile boolean running = false;
+
+    /** Constructor for the primary node, which listens for secondaries on clusterPort */
+    public ClusterNode(CreateWhiteBoard server, int clusterPort) {
+        this.server = server;
+        this.nodeId = "node-" + UUID.randomUUID().toString().substring(0, 8);
+        this.clusterPort = clusterPort;
+        this.primaryHost = null;
+        this.primaryPort = -1;
+    }
+
+    /** Constructor for a secondary node, which connects out to the primary */
+    public ClusterNode(CreateWhiteBoard server, String primaryHost, int primaryPort) {
+        this.server = server;
+        this.nodeId = "node-" + UUID.randomUUID().toString().substring(0, 8);
+        this.clusterPort = -1;
+        this.primaryHost = primaryHost;
+        this.primaryPort = primaryPort;
+    }
+
+    public void start() {
+        running = true;
+        if (isPrimary()) {
+            new Thread(this::acceptPeers, "cluster-accept").start();
+        } else {
+            new Thread(this::connectToPrimary, "cluster-connect").start();
+        }
+    }
+
+    private void acceptPeers() {
+        try {
+            serverSocket = new ServerSocket(clusterPort);
+            System.out.println("[Cluster] " + nodeId + " is primary, listening for nodes on port " + clusterPort);
+            while (running) {
+                Socket s = serverSocket.accept();
+                PeerLink link = new PeerLink(s, this);
+                new Thread(link, "cluster-link").start();
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("[Cluster] Error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void connectToPrimary() {
+        while (running) {
+            try {
+                PeerLink link = new PeerLink(new Socket(primaryHost, primaryPort), this);
+                link.send(new RelayEnvelope(RelayEnvelope.Kind.HELLO, nodeId, -1, null));
+                // After the HELLO, so the primary commits them on top of the snapshot it sends back
+                synchronized (unsent) {
+                    if (!unsent.isEmpty()) {
+                        System.out.println("[Cluster] Sending " + unsent.size() + " ops held while the primary was away");
+                    }
+                    for (RelayEnvelope env : unsent) {
+                        link.send(env);
+                    }
+                    unsent.clear();
+                    primaryLink = link;
+                }
+                System.out.println("[Cluster] " + nodeId + " joined primary at " + primaryHost + ":" + primaryPort);
+                link.run();
+            } catch (IOException e) {
+                System.err.println("[Cluster] Cannot reach primary at " + primaryHost + ":" + primaryPort + ": " + e.getMessage());
+            }
+            primaryLink = null;
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    public void onEnvelope(PeerLink from, RelayEnvelope env) {
+        switch (env.getKind()) {
+            case HELLO -> {
+                // Snapshot and registration happen under the board lock so the new node
+                // neither misses nor double-applies an op committed in between.
+                synchronized (server.getBoardLock()) {
+                    from.send(new RelayEnvelope(nodeId, server.snapshotBoard()));
+                    links.add(from);
+                }
+                System.out.println("[Cluster] Node " + env.getOriginNode() + " joined. Nodes linked: " + links.size());
+            }
+            case FORWARD, DELIVER -> server.commit(env.getCommand(), env.getOriginNode(), env.getOriginHandler());
+            case PREVIEW -> {
+                if (env.getCommand().getType() == DrawCommand.CommandType.PRESENCE) {
+                    server.getPresence().send(env.getCommand());
+                } else {
+                    server.broadcast(env.getCommand(), null);
+                }
+                relayExcept(from, env);
+            }
+            case ROUTE -> {
+                server.deliverRouted(env.getCommand());
+                relayExcept(from, env);
+            }
+            case SNAPSHOT -> server.applySnapshot(env.getSnapshot());
+        }
+    }
+
+    // Called by the server once an op has been applied locally, still holding the board lock
+    public void onCommitted(DrawCommand cmd, String originNode, long originHandler) {
+        if (isPrimary()) {
+            RelayEnvelope env = new RelayEnvelope(RelayEnvelope.Kind.DELIVER, originNode, originHandler, cmd);
+            for (PeerLink link : links) {
+                link.send(env);
+            }
+        }
+    }
+
+    public void submit(DrawCommand cmd, long originHandler) {
+        RelayEnvelope env = new RelayEnvelope(RelayEnvelope.Kind.FORWARD, nodeId, originHandler, cmd);
+        PeerLink link;
+        synchronized (unsent) {
+            link = primaryLink;
+            if (link == null) {
+                if (unsent.size() < MAX_UNSENT) {
+                    unsent.add(env);
+                    return;
+                }
+            }
+        }
+        if (link == null) {
+            System.err.println("[Cluster] No primary link and " + MAX_UNSENT + " ops held, rejecting " + cmd);
+            server.rejectOp(cmd, originHandler);
+            return;
+        }
+        link.send(env);
+    }
+
+    public void preview(DrawCommand cmd, long originHandler) {
+        send(new RelayEnvelope(RelayEnvelope.Kind.PREVIEW, nodeId, originHandler, cmd));
+    }
+
+    public void route(DrawCommand cmd) {
+        send(new RelayEnvelope(RelayEnvelope.Kind.ROUTE, nodeId, -1, cmd));
+    }
+
+    private void send(RelayEnvelope env) {
+        if (isPrimary()) {
+            relayExcept(null, env);
+        } else if (primaryLink != null) {
+            primaryLink.send(env);
+        }
+    }
+
+    // Only the primary fans out, secondaries never have more than the one link
+    private void relayExcept(PeerLink from, RelayEnvelope env) {
+        if (!isPrimary()) return;
+        for (PeerLink link : links) {
+            if (link != from) {
+                link.send(env);
+            }
+        }
+    }
+
+    public void removeLink(PeerLink link) {
+        links.remove(link);
+    }
+
+    public boolean isPrimary() {
+        return primaryHost == null;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("[Cluster] Error stopping: " + e.getMessage());
+        }
+        for (PeerLink link : links) {
+            link.close();
+        }
+        if (primaryLink != null) {
+            primaryLink.close();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class CommittedOps {
+    // The op ids committed for each user's session, so an op sent again after a resume is only committed
+    // once. Ids are kept exactly for the newest WINDOW ids, as an op that was rejected, or never arrived,
+    // leaves a gap that a later resend may still fill. Anything older than that is taken as committed.
+    // Only used from one thread at a time.
+    private static final int WINDOW = 4096;
+
+    private static class Session {
+        private long newest = 0;
+        private final Set<Long> ids = new HashSet<>();
+        private final ArrayDeque<Long> order = new ArrayDeque<>();
+    }
+
+    private final Map<String, Session> sessions = new HashMap<>();
+
+    // True if the op was already committed, otherwise it is recorded as committed now
+    public boolean commit(String username, long opId) {
+        Session s = sessions.computeIfAbsent(username, u -> new Session());
+        if (opId <= s.newest - WINDOW || !s.ids.add(opId)) {
+            return true;
+        }
+        s.order.add(opId);
+        s.newest = Math.max(s.newest, opId);
+        while (!s.order.isEmpty() && s.order.peek() <= s.newest - WINDOW) {
+            s.ids.remove(s.order.poll());
+        }
+        return false;
+    }
+
+    // A new session numbers its ops from 1 again
+    public void forget(String username) {
+        sessions.remove(username);
+    }
+}
@@ -0,0 +1,106 @@
+import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class CompressionBenchmark {
+    // Replays a drawing session through the same object stream setup the client and server use, once plain
+    // and once with deflate, and reports bytes on the wire against the CPU spent on each side.
+    // e.g. java CompressionBenchmark 500 42
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int strokes = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        List<DrawCommand> session = recordSession(strokes, new Random(seed));
+        System.out.println("Session: " + session.size() + " messages (" + strokes + " strokes with live previews, shapes, chat, cursors)");
+
+        Result plain = null, deflate = null;
+        for (int round = 0; round < ROUNDS; round++) {      // the early rounds warm up the JIT, the last one is reported
+            plain = run(session, false);
+            deflate = run(session, true);
+        }
+        System.out.printf("%-8s %12s %12s %12s%n", "", "bytes", "write ms", "read ms");
+        System.out.printf("%-8s %12d %12.1f %12.1f%n", "plain", plain.bytes, plain.writeNanos / 1e6, plain.readNanos / 1e6);
+        System.out.printf("%-8s %12d %12.1f %12.1f%n", "deflate", deflate.bytes, deflate.writeNanos / 1e6, deflate.readNanos / 1e6);
+        System.out.printf("Saved %.1f%% of the bytes for %.1f us extra CPU per message%n",
+                100.0 * (plain.bytes - deflate.bytes) / plain.bytes,
+                ((deflate.writeNanos + deflate.readNanos) - (plain.writeNanos + plain.readNanos)) / 1e3 / session.size());
+    }
+
+    private record Result(long bytes, long writeNanos, long readNanos) {}
+
+    private static Result run(List<DrawCommand> session, boolean compressed) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        OutputStream raw = compressed ? StreamCompression.compress(wire) : wire;
+        ObjectOutputStream out = new ObjectOutputStream(raw);
+        for (DrawCommand cmd : session) {
+            // Written exactly like sendCommand does, one reset and flush per message
+            out.reset();
+            out.writeObject(cmd);
+            out.flush();
+        }
+        long writeNanos = System.nanoTime() - start;
+
+        byte[] bytes = wire.toByteArray();
+        start = System.nanoTime();
+        InputStream source = new ByteArrayInputStream(bytes);
+        ObjectInputStream in = new ObjectInputStream(compressed ? StreamCompression.decompress(source) : source);
+        for (int i = 0; i < session.size(); i++) {
+            in.readObject();
+        }
+        long readNanos = System.nanoTime() - start;
+        return new Result(bytes.length, writeNanos, readNanos);
+    }
+
+    // Roughly what a few users produce: freehand strokes sent again with every new point while they're
+    // drawn, shape previews while dragging, the odd chat message and cursor updates in between
+    private static List<DrawCommand> recordSession(int strokes, Random random) {
+        Color[] palette = {Color.BLACK, Color.RED, Color.BLUE, new Color(0, 128, 0)};
+        String[] users = {"alice", "bob", "carol"};
+        List<DrawCommand> session = new ArrayList<>();
+
+        for (int s = 0; s < strokes; s++) {
+            String user = users[random.nextInt(users.length)];
+            Color color = palette[random.nextInt(palette.length)];
+            int x = random.nextInt(800), y = random.nextInt(600);
+
+            if (s % 5 == 4) {
+                Point start = new Point(x, y);
+                Rectangles shape = null;
+                for (int step = 1; step <= 20; step++) {
+                    shape = new Rectangles(start, new Point(x + step * 4, y + step * 3), 3, color, true);
+                    session.add(new DrawCommand(shape, user));
+                }
+                session.add(new DrawCommand(new Rectangles(start, shape.getEndPoint(), 3, color, false), user));
+            } else {
+                StrokeData stroke = new StrokeData(color, 5, true);
+                int points = 20 + random.nextInt(60);
+                for (int p = 0; p < points; p++) {
+                    x += random.nextInt(7) - 3;
+                    y += random.nextInt(7) - 3;
+                    stroke.addPoint(new Point(x, y));
+                    session.add(new DrawCommand(stroke, user));
+                }
+                StrokeData done = new StrokeData(color, 5, false);
+                for (int p = 0; p < stroke.size(); p++) done.addPoint(stroke.getPoint(p));
+                session.add(new DrawCommand(done, user));
+            }
+
+            if (s % 10 == 0) {
+                session.add(new DrawCommand(DrawCommand.CommandType.CHAT, user, "message " + s + " from " + user));
+            }
+            short[] xy = {PresenceFrame.quantize(x), PresenceFrame.quantize(y)};
+            session.add(new DrawCommand(new PresenceFrame(new String[]{user}, xy)));
+        }
+        return session;
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ConnectionReaper {
+    // Closes connections nothing has been heard from for the timeout. Clients send ACTIVE every few
+    // seconds even when idle, so a quiet one is half-open (a closed laptop lid, lost Wi-Fi) and would
+    // otherwise keep its thread, its socket and its place in every broadcast for good. Closing the
+    // socket ends the handler's blocking read, or a write stuck on the full socket buffer, and the
+    // handler cleans up as for any dropped connection: an approved user's session is held for resume.
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    private final Set<ClientHandler> handlers = ConcurrentHashMap.newKeySet();
+    private final ServerMetrics metrics;
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "connection-reaper");
+        t.setDaemon(true);
+        return t;
+    });
+    private long timeoutMillis;
+
+    public ConnectionReaper(ServerMetrics metrics, long timeoutMillis) {
+        this.metrics = metrics;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    // A timeout of 0 turns the reaper off
+    public void start() {
+        if (timeoutMillis > 0) {
+            reaper.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void stop() {
+        reaper.shutdownNow();
+    }
+
+    public void add(ClientHandler handler) {
+        handlers.add(handler);
+    }
+
+    public void remove(ClientHandler handler) {
+        handlers.remove(handler);
+    }
+
+    private void check() {
+        long now = System.currentTimeMillis();
+        for (ClientHandler h : handlers) {
+            if (now - h.getLastHeard() <= timeoutMillis) continue;
+            handlers.remove(h);
+            System.out.println("[Server] Nothing heard from " + (h.getUsername() != null ? h.getUsername() : "a new connection")
+                    + " for " + (now - h.getLastHeard()) / 1000 + "s, closing it.");
+            metrics.idleReaped();
+            try {
+                h.closeSocket();
+            } catch (Exception e) {
+                System.err.println("[Server] Error closing idle connection: " + e.getMessage());
+            }
+        }
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+}
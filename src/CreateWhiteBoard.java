@@ -1,23 +1,75 @@
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CreateWhiteBoard {
+    private static final long DEFAULT_RESUME_GRACE_MS = 30_000;
+    private static final int CHAT_MEMORY_WINDOW = 500;
+    public static final int CHAT_JOIN_WINDOW = 50;
+    public static final int CHAT_PAGE_SIZE = 50;
+    public static final long MAX_MESSAGE_BYTES = 1 << 20;
+    private static final int DEFAULT_MAX_CONNECTIONS = 200;
+    private static final int DEFAULT_MAX_PENDING = 50;
+    private static final long DEFAULT_MEMORY_BUDGET_MB = 64;
+    private static final long DEFAULT_HEARTBEAT_TIMEOUT_MS = 30_000;
+    private static final long SHUTDOWN_DEADLINE_MS = 5000;
 
     private final int port;
     private String managerUsername;
     private final Canvas canvas;
     private final List<ClientHandler> clients;
     private ServerSocket serverSocket;
-    private boolean running = false;
-
-    private List<StrokeData> strokes    = new ArrayList<>();
-    private List<Shapes> shapeList      = new ArrayList<>();
-    private List<DrawText> strings      = new ArrayList<>();
-    private List<ChatData> chats        = new ArrayList<>();
-    private List<String> users          = new ArrayList<>();
+    private volatile boolean running = false;
+    private final Map<ClientHandler, Thread> handlerThreads = new ConcurrentHashMap<>();
+    private final Object stopLock = new Object();
+    private boolean stopped = false;
+    private boolean closing = false;        // set under the board lock once the final snapshot is taken
+    private Path saveFile;                  // the board is saved here on shutdown, null unless --save
+
+    private final BoardLog boardLog     = new BoardLog();
+    private final UndoHistory history   = new UndoHistory();
+    private final SpatialIndex index    = new SpatialIndex();
+    private final ChatStore chats       = new ChatStore(CHAT_MEMORY_WINDOW);
+    private final Roster roster         = new Roster();
+    private final CommittedOps committedOps = new CommittedOps();      // under the board lock
     private final Map<String, ClientHandler> pendingClients;
+    private final Object boardLock = new Object();
+    private String boardId = UUID.randomUUID().toString();
+    private ClusterNode cluster;
+    private final SessionRegistry sessions = new SessionRegistry(DEFAULT_RESUME_GRACE_MS);
+    private final PresenceHub presence = new PresenceHub(this);
+    private final ApprovalPolicy approvalPolicy = new ApprovalPolicy();
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final ConnectionReaper reaper = new ConnectionReaper(metrics, DEFAULT_HEARTBEAT_TIMEOUT_MS);
+    private final AtomicInteger connections = new AtomicInteger();
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int maxPending = DEFAULT_MAX_PENDING;
+    private boolean compressionEnabled = true;
+    private SessionRecorder recorder;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET_MB << 20;
+    private BaseLayer baseLayer;            // items flattened out of the board log, null until the first time
+    private boolean flattening = false;     // a base layer is being encoded
+    private long boardEpoch = 0;            // bumped by CLEAR and snapshots, a layer encoded before then is stale
+    private final ExecutorService flattener = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "board-flattener");
+        t.setDaemon(true);
+        return t;
+    });
+    private ItemArchive archive;
+    private OffHeapStore offHeap;           // null unless --off-heap on
 
     public CreateWhiteBoard(int port, String managerUsername) {
         this.port = port;
@@ -31,44 +83,570 @@ public class CreateWhiteBoard {
         try {
             serverSocket = new ServerSocket(port);
             running = true;
+            if (cluster != null) {
+                cluster.start();
+            }
+            presence.start();
+            metrics.start();
+            reaper.start();
+            startConsole();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::stopServer, "server-shutdown"));
 
             while (running) {
                 Socket clientSocket = serverSocket.accept();
+                if (connections.incrementAndGet() > maxConnections) {
+                    connections.decrementAndGet();
+                    rejectConnection(clientSocket);
+                    continue;
+                }
                 ClientHandler handler = new ClientHandler(clientSocket, this);
-                new Thread(handler).start();
+                reaper.add(handler);
+                Thread thread = new Thread(handler);
+                handlerThreads.put(handler, thread);
+                thread.start();
+                if (!running) {
+                    handler.closeSocket();  // accepted just as the server stopped, after it said BYE to everyone
+                }
             }
         } catch (IOException e) {
-            System.err.println("[Server] Error: " + e.getMessage());
-            e.printStackTrace();
+            if (running) {
+                System.err.println("[Server] Error: " + e.getMessage());
+                e.printStackTrace();
+            }
         } finally {
             stopServer();
         }
     }
 
+    // Turned away before a handler thread is started, the BYE fits in the socket buffer so this never blocks accept
+    private void rejectConnection(Socket socket) {
+        metrics.rejectedConnection();
+        System.out.println("[Server] Connection limit of " + maxConnections + " reached, rejecting " + socket.getRemoteSocketAddress());
+        try (socket) {
+            ObjectOutputStream rejectOut = new ObjectOutputStream(socket.getOutputStream());
+            rejectOut.writeObject(new DrawCommand(DrawCommand.CommandType.BYE, "Server", "The server is full, please try again later."));
+            rejectOut.flush();
+        } catch (IOException e) {
+            System.err.println("[Server] Error rejecting connection: " + e.getMessage());
+        }
+    }
+
+    public void connectionClosed(ClientHandler handler) {
+        reaper.remove(handler);
+        handlerThreads.remove(handler);
+        connections.decrementAndGet();
+    }
+
+    // Serialized once and the same bytes written to every client, rather than once per client
     public void broadcast(DrawCommand cmd, ClientHandler exclude) {
         synchronized (clients) {
+            int recipients = clients.size() - (exclude != null && clients.contains(exclude) ? 1 : 0);
+            ByteBuffer wire = recipients > 1 ? OffHeapStore.wireOf(cmd) : cmd.getWire();
             for (ClientHandler c : clients) {
-                if (c != exclude) { c.sendCommand(cmd); }
+                if (c != exclude) { c.sendCommand(cmd, wire); }
+            }
+        }
+    }
+
+    // Ops every node has to agree on go through here, previews go through preview()
+    public void publish(DrawCommand cmd, ClientHandler origin) {
+        long originId = origin != null ? origin.getHandlerId() : -1;
+        if (cluster != null && !cluster.isPrimary()) {
+            cluster.submit(cmd, originId);
+        } else {
+            commit(cmd, getNodeId(), originId);
+        }
+    }
+
+    public void commit(DrawCommand cmd, String originNode, long originHandler) {
+        synchronized (boardLock) {
+            if (closing) {
+                // Shutting down, the final snapshot has already been taken. The sender takes it back off its board.
+                if (BoardLog.isBoardOp(cmd)) {
+                    rejectOp(cmd, originNode, originHandler);
+                }
+                return;
+            }
+            if (isDuplicate(cmd)) {
+                settleDuplicate(cmd, originNode, originHandler);
+                return;
+            }
+            for (DrawCommand op : resolve(cmd)) {
+                applyToBoard(op);
+                record(op);
+                ClientHandler exclude = getNodeId().equals(originNode) ? findClient(originHandler) : null;
+                broadcast(op, exclude);
+                if (exclude != null && op.getSeq() > 0) {
+                    // The sender already drew it, it only needs the seq to keep its own count gap-free
+                    DrawCommand ack = new DrawCommand(DrawCommand.CommandType.ACK);
+                    ack.setSeq(op.getSeq());
+                    ack.setOpId(op.getOpId());
+                    exclude.sendCommand(ack);
+                }
+                if (cluster != null) {
+                    cluster.onCommitted(op, originNode, originHandler);
+                }
+            }
+        }
+    }
+
+    // A resuming client sends again every op it never saw acknowledged, some of which may have been
+    // committed before the connection dropped. Only the node that orders ops decides, the others take
+    // what the primary delivers.
+    private boolean isDuplicate(DrawCommand cmd) {
+        if (cmd.getOpId() <= 0 || cmd.getUsername() == null || !BoardLog.isBoardOp(cmd)
+                || (cluster != null && !cluster.isPrimary())) {
+            return false;
+        }
+        return committedOps.commit(cmd.getUsername(), cmd.getOpId());
+    }
+
+    // An ACK without a seq settles the op without the client counting it again
+    private void settleDuplicate(DrawCommand cmd, String originNode, long originHandler) {
+        DrawCommand ack = new DrawCommand(DrawCommand.CommandType.ACK, cmd.getUsername());
+        ack.setOpId(cmd.getOpId());
+        if (getNodeId().equals(originNode)) {
+            ClientHandler origin = findClient(originHandler);
+            if (origin != null) {
+                origin.sendCommand(ack);
+            }
+        } else {
+            route(ack);
+        }
+    }
+
+    private void record(DrawCommand op) {
+        if (recorder != null && BoardLog.isBoardOp(op)) {
+            recorder.record(op);
+        }
+    }
+
+    // Presence frames skip the board path entirely and are only passed on to the other nodes' clients
+    public void relayPresence(DrawCommand frame) {
+        if (cluster != null) {
+            cluster.preview(frame, -1);
+        }
+    }
+
+    public ApprovalPolicy getApprovalPolicy() {
+        return approvalPolicy;
+    }
+
+    public PresenceHub getPresence() {
+        return presence;
+    }
+
+    public List<ClientHandler> getClients() {
+        return clients;
+    }
+
+    public void preview(DrawCommand cmd, ClientHandler origin) {
+        broadcast(cmd, origin);
+        if (cluster != null) {
+            cluster.preview(cmd, origin != null ? origin.getHandlerId() : -1);
+        }
+    }
+
+    // The ops a request actually puts on the board: UNDO and REDO resolve to a REMOVE or a restored item,
+    // an eraser pass to a REMOVE plus the pieces of the strokes it cut, and may resolve to nothing at all
+    private List<DrawCommand> resolve(DrawCommand cmd) {
+        return switch (cmd.getType()) {
+            case UNDO -> optional(resolveUndo(cmd.getUsername()));
+            case REDO -> optional(resolveRedo(cmd.getUsername()));
+            case ERASE -> Eraser.erase(cmd, index);
+            default -> List.of(cmd);
+        };
+    }
+
+    private static List<DrawCommand> optional(DrawCommand cmd) {
+        return cmd != null ? List.of(cmd) : List.of();
+    }
+
+    private void applyToBoard(DrawCommand cmd) {
+        if (BoardLog.isBoardOp(cmd)) {
+            boardLog.append(cmd);
+            if (offHeap != null) {
+                // Encoded once now that it has its seq, every client is then sent these same bytes
+                cmd.setWire(offHeap.store(cmd));
+            }
+        }
+        switch (cmd.getType()) {
+            case SHAPE, STROKE, TEXT -> {
+                if (!cmd.getIntermediate()) {
+                    history.recordItem(cmd);
+                    index.insert(cmd);
+                    maybeFlatten();
+                }
+            }
+            case REMOVE -> {
+                if (!cmd.isUndo()) {
+                    // An eraser pass changes the board like a new item does, what was undone before it is gone
+                    history.startBranch(cmd.getUsername());
+                }
+                for (long target : cmd.getTargets()) {
+                    DrawCommand op = boardLog.markRemoved(target);
+                    if (op != null) {
+                        index.remove(op);
+                        if (cmd.isUndo()) history.recordUndone(cmd.getUsername(), op);
+                    }
+                }
+                boardLog.maybeCompact();
+            }
+            case CLEAR -> {
+                clearChats();
+                history.clear();
+                index.clear();
+                baseLayer = null;
+                boardEpoch++;
+                if (archive != null) archive.clear();
+            }
+            case BASE -> baseLayer = cmd.getBase();
+            case CHAT -> cmd.setChatId(chats.add(new ChatData(cmd.getUsername(), cmd.getChatText()), cmd.getChatId()));
+            case USER -> {
+                if (cmd.getUserList() != null) {
+                    roster.reset(cmd.getUserList(), cmd.getRosterVersion());
+                } else {
+                    cmd.setRosterVersion(roster.join(cmd.getUsername(), cmd.getRosterVersion()));
+                    committedOps.forget(cmd.getUsername());
+                }
+            }
+            case BYE -> {
+                if (cmd.getChatText() == null && cmd.getUsername() != null) {
+                    cmd.setRosterVersion(roster.leave(cmd.getUsername(), cmd.getRosterVersion()));
+                    committedOps.forget(cmd.getUsername());
+                }
+            }
+            case MGRINFO -> {
+                setManagerUsername(cmd.getUsername());
+                if (cmd.getChatText() != null) boardId = cmd.getChatText();
+            }
+            default -> {}
+        }
+    }
+
+    // Keeps the board log within the memory budget. Past it the oldest items are drawn into a new base
+    // layer on the flattener thread, so commits carry on while it is encoded. Once it is ready those
+    // items are archived to disk and the clients get the layer to replace them with.
+    private void maybeFlatten() {
+        if (flattening || boardLog.getBytes() <= memoryBudget) {
+            return;
+        }
+        List<DrawCommand> oldest = boardLog.oldest(memoryBudget / 2);
+        if (oldest.isEmpty()) {
+            return;
+        }
+        List<DrawCommand> taken = new ArrayList<>();
+        for (DrawCommand op : oldest) {
+            if (op.getItem() != null && !op.isRemoved()) taken.add(op);
+        }
+        long coveredSeq = oldest.get(oldest.size() - 1).getSeq();
+        BaseLayer previous = baseLayer;
+        long epoch = boardEpoch;
+        flattening = true;
+        flattener.execute(() -> {
+            List<BoardItem> items = new ArrayList<>();
+            for (DrawCommand op : taken) items.add(op.getItem());
+            BaseLayer layer = null;
+            DrawCommand changes = null;
+            try {
+                layer = BaseLayer.flatten(previous, items, coveredSeq);
+                // The clients already hold the previous layer, they only get the tiles that changed
+                changes = new DrawCommand(layer.changesFrom(previous));
+                changes.setWire(OffHeapStore.wireOf(changes));
+            } catch (IOException e) {
+                System.err.println("[Server] Error flattening the board: " + e.getMessage());
+            }
+            installBase(layer, changes, taken, coveredSeq, epoch);
+        });
+    }
+
+    // The layer only replaces its items if the board still has all of them, otherwise it is dropped
+    // and the next item tries again
+    private void installBase(BaseLayer layer, DrawCommand changes, List<DrawCommand> taken, long coveredSeq, long epoch) {
+        synchronized (boardLock) {
+            flattening = false;
+            if (layer == null || closing || epoch != boardEpoch) {
+                return;
+            }
+            List<BoardItem> items = new ArrayList<>();
+            for (DrawCommand op : taken) {
+                if (op.isRemoved()) {
+                    System.out.println("[Server] Items were removed while the board was being flattened, trying again.");
+                    return;
+                }
+                items.add(op.getItem());
+            }
+            try {
+                if (archive == null) archive = ItemArchive.createTemp("whiteboard-archive");
+                archive.append(items);
+            } catch (IOException e) {
+                System.err.println("[Server] Error flattening the board: " + e.getMessage());
+                return;
+            }
+            boardLog.dropThrough(coveredSeq);
+            history.forget(coveredSeq);
+            index.clear();
+            for (DrawCommand op : boardLog.all()) {
+                if (op.getItem() != null && !op.isRemoved()) index.insert(op);
+            }
+            BaseLayer previous = baseLayer;
+            baseLayer = layer;
+            if (previous != null) previous.release();
+            broadcast(changes, null);
+            System.out.println("[Server] Flattened " + items.size() + " items up to seq " + coveredSeq + " into a "
+                    + baseLayer.getBytes() / 1024 + " KB base layer (" + changes.getBase().getBytes() / 1024
+                    + " KB sent), board log now " + boardLog.getBytes() / 1024 + " KB.");
+        }
+    }
+
+    public BaseLayer getBaseLayer() {
+        return baseLayer;
+    }
+
+    // Undo is a REMOVE tombstone for the user's newest item, history itself is never rewritten
+    private DrawCommand resolveUndo(String user) {
+        long target = history.nextUndo(user, boardLog);
+        if (target < 0) {
+            return null;
+        }
+        DrawCommand remove = new DrawCommand(DrawCommand.CommandType.REMOVE, user);
+        remove.setTargets(new long[]{target});
+        remove.setUndo(true);
+        return remove;
+    }
+
+    // Redo puts the removed item back on top as a new op that points at the one it restores
+    private DrawCommand resolveRedo(String user) {
+        DrawCommand removed = history.nextRedo(user);
+        if (removed == null) {
+            return null;
+        }
+        DrawCommand restored = switch (removed.getType()) {
+            case SHAPE -> new DrawCommand(removed.getShape(), user);
+            case STROKE -> new DrawCommand(removed.getStroke(), user);
+            default -> new DrawCommand(removed.getText(), user);
+        };
+        restored.setTargets(new long[]{removed.getSeq()});
+        return restored;
+    }
+
+    // Puts a saved board on before any client connects. The items are owned by the manager.
+    public void loadBoard(Path file) throws IOException {
+        if (cluster != null && !cluster.isPrimary()) {
+            System.out.println("[Server] Not loading " + file + ", this node takes its board from the primary.");
+            return;
+        }
+        BoardFile board = BoardFile.open(file);
+        synchronized (boardLock) {
+            for (int i = 0; i < board.size(); i++) {
+                DrawCommand op = BoardFile.toCommand(board.get(i), managerUsername);
+                applyToBoard(op);
+                record(op);
+            }
+        }
+        System.out.println("[Server] Loaded " + board.size() + " items from " + file);
+    }
+
+    // Written beside the file and moved over it, so a crash mid-write leaves the previous save intact
+    public void saveBoard(Path file) throws IOException {
+        List<BoardItem> items = boardItems();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        BoardFile.write(temp, items);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("[Server] Saved " + items.size() + " items to " + file);
+    }
+
+    // Items still on the board in painting order, the archived ones first
+    public List<BoardItem> boardItems() {
+        List<BoardItem> items = new ArrayList<>();
+        synchronized (boardLock) {
+            if (archive != null) {
+                for (BoardItem item : archive.items()) items.add(item);
+            }
+            for (DrawCommand op : boardLog.all()) {
+                if (BoardLog.isBoardOp(op) && op.getItem() != null && !op.isRemoved()) items.add(op.getItem());
+            }
+        }
+        return items;
+    }
+
+    // Commands typed into the server's terminal, e.g. "export board.png 4" or "export board.svg"
+    private void startConsole() {
+        Thread console = new Thread(() -> {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            try {
+                while ((line = in.readLine()) != null) {
+                    runConsoleCommand(line.trim().split("\\s+"));
+                }
+            } catch (IOException e) {
+                System.err.println("[Server] Console closed: " + e.getMessage());
+            }
+        }, "server-console");
+        console.setDaemon(true);
+        console.start();
+    }
+
+    private void runConsoleCommand(String[] parts) {
+        try {
+            if (parts[0].equals("export") && parts.length > 1) {
+                BoardExporter.export(boardItems(), Path.of(parts[1]), parts.length > 2 ? Double.parseDouble(parts[2]) : 1);
+            } else if (parts[0].equals("shutdown")) {
+                stopServer();
+            } else if (!parts[0].isEmpty()) {
+                System.out.println("[Server] Commands: export <file.png|file.svg> [scale], shutdown");
             }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[Server] Error: " + e.getMessage());
         }
     }
 
-    public synchronized void sendToUser(DrawCommand cmd, String target) {
+    // Everything a new cluster node needs to catch up, must be called holding the board lock
+    public ArrayList<DrawCommand> snapshotBoard() {
+        ArrayList<DrawCommand> snapshot = new ArrayList<>();
+        snapshot.add(new DrawCommand(DrawCommand.CommandType.MGRINFO, managerUsername, boardId));
+        snapshot.add(roster.snapshot());
+        for (ChatData c : chats.recent(CHAT_MEMORY_WINDOW)) {
+            DrawCommand chat = new DrawCommand(DrawCommand.CommandType.CHAT, c.getUsername(), c.getMessage());
+            chat.setChatId(c.getId());
+            snapshot.add(chat);
+        }
+        if (baseLayer != null) snapshot.add(new DrawCommand(baseLayer));
+        for (DrawCommand op : boardLog.all()) snapshot.add(op);
+        return snapshot;
+    }
+
+    public void applySnapshot(List<DrawCommand> snapshot) {
+        synchronized (boardLock) {
+            boardEpoch++;
+            boardLog.reset();
+            history.clear();
+            index.clear();
+            chats.clear();
+            roster.clear();
+            for (DrawCommand cmd : snapshot) {
+                applyToBoard(cmd);
+            }
+            boardLog.truncateHistory();
+            synchronized (clients) {
+                for (ClientHandler c : clients) {
+                    if (!roster.contains(c.getUsername())) {
+                        // Our users are unknown to the primary, join them through it so every node agrees on the version
+                        publish(new DrawCommand(DrawCommand.CommandType.USER, c.getUsername()), null);
+                    }
+                    c.sendCommand(roster.snapshot());
+                    c.sendBoardState();
+                }
+            }
+        }
+        System.out.println("[Cluster] Board snapshot applied: " + snapshot.size() + " entries.");
+    }
+
+    public void sendToUser(DrawCommand cmd, String target) {
+        if (!sendToLocalUser(cmd, target)) {
+            route(cmd);
+        }
+    }
+
+    // Hands a message to the rest of the cluster, false when running standalone
+    public boolean route(DrawCommand cmd) {
+        if (cluster == null) {
+            return false;
+        }
+        cluster.route(cmd);
+        return true;
+    }
+
+    private boolean sendToLocalUser(DrawCommand cmd, String target) {
         synchronized (clients) {
             for (ClientHandler c : clients) {
                 if(c.getUsername() != null && c.getUsername().equals(target)) {
                     try {
                         c.sendCommand(cmd);
-                        return;
                     } catch (Exception e) {
                         System.err.println("[Server] Failed to send private message: " + e.getMessage());
-                        return;
                     }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // A message routed here from another node, only acted on if its target is connected to this node
+    public void deliverRouted(DrawCommand cmd) {
+        switch (cmd.getType()) {
+            case AUTH -> {
+                // A join request, or a withdrawn one, is for the manager, anything else is the manager's answer
+                if (cmd.getChatText() == null || "GONE".equals(cmd.getChatText())) {
+                    sendToLocalUser(cmd, managerUsername);
+                } else {
+                    resolvePendingClient(cmd.getUsername(), cmd.getChatText());
+                }
+            }
+            case KICK -> {
+                if (findClient(cmd.getUsername()) != null) {
+                    kickUser(cmd.getUsername(), managerUsername, -1);
                 }
             }
+            case ACK -> sendToLocalUser(cmd, cmd.getUsername());
+            default -> System.err.println("[Cluster] Unexpected routed message: " + cmd);
         }
     }
 
+    public boolean resolvePendingClient(String username, String response) {
+        ClientHandler pendingHandler = getPendingClient(username);
+        if (pendingHandler == null) {
+            return false;
+        }
+        removePendingClient(username);
+
+        if ("YES".equals(response)) {
+            System.out.println("[Server] Manager APPROVED " + username);
+            pendingHandler.approve();
+        } else {
+            System.out.println("[Server] Manager DENIED " + username);
+            pendingHandler.deny("Your request was denied by the manager.");
+        }
+        return true;
+    }
+
+    // Tells the sender an op was not committed, so it takes back what it already drew
+    public void rejectOp(DrawCommand cmd, long originHandler) {
+        ClientHandler origin = findClient(originHandler);
+        if (origin != null) {
+            origin.reject(cmd);
+        }
+    }
+
+    private void rejectOp(DrawCommand cmd, String originNode, long originHandler) {
+        if (getNodeId().equals(originNode)) {
+            rejectOp(cmd, originHandler);
+        } else {
+            DrawCommand ack = new DrawCommand(DrawCommand.CommandType.ACK, cmd.getUsername(), "REJECTED");
+            ack.setOpId(cmd.getOpId());
+            route(ack);
+        }
+    }
+
+    private ClientHandler findClient(long handlerId) {
+        synchronized (clients) {
+            for (ClientHandler c : clients) {
+                if (c.getHandlerId() == handlerId) return c;
+            }
+        }
+        return null;
+    }
+
+    private ClientHandler findClient(String username) {
+        synchronized (clients) {
+            for (ClientHandler c : clients) {
+                if (username.equals(c.getUsername())) return c;
+            }
+        }
+        return null;
+    }
+
     public void addClient(ClientHandler client) {
         synchronized (clients) {
             clients.add(client);
@@ -83,32 +661,19 @@ public class CreateWhiteBoard {
     }
 
     public synchronized void kickUser(String targetUsername, String managerName, long managerHandlerId) {
-        ClientHandler handlerToKick = null;
-
         if (targetUsername.equals(managerName)) {
             System.err.println("[Server] Kick Error: Manager attempted to kick themselves (" + targetUsername + "). Ignoring.");
             return;
         }
 
-        synchronized (clients) {
-            for (ClientHandler c : clients) {
-                if (c.getUsername() != null && c.getUsername().equals(targetUsername)) {
-                    handlerToKick = c;
-                    break;
-                }
-            }
-        }
+        ClientHandler handlerToKick = findClient(targetUsername);
 
         if (handlerToKick != null) {
             DrawCommand kickMsg = new DrawCommand(DrawCommand.CommandType.BYE, "Server", "You were kicked by the manager (" + managerName + ").");
+            handlerToKick.endSession();
             handlerToKick.sendCommand(kickMsg);
-
-            try {
-                handlerToKick.closeSocket();
-            } catch (IOException e) {
-                System.err.println("Error closing socket for kicked user: " + e.getMessage());
-            }
-        } else {
+            handlerToKick.closeAfterSent();
+        } else if (!route(new DrawCommand(DrawCommand.CommandType.KICK, targetUsername))) {
             System.err.println("[Server] Manager tried to kick non-existent user: " + targetUsername);
         }
     }
@@ -121,36 +686,131 @@ public class CreateWhiteBoard {
         pendingClients.remove(username);
     }
 
+    // False if the handler was no longer waiting, e.g. it had already been approved or denied
+    public boolean removePendingClient(String username, ClientHandler handler) {
+        return pendingClients.remove(username, handler);
+    }
+
+    public int pendingCount() {
+        return pendingClients.size();
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
     public ClientHandler getPendingClient(String username) {
         return pendingClients.get(username);
     }
 
+    // Stops without losing committed ops: no new connections, the final snapshot is taken and every op
+    // after it refused, then every connection gets a BYE and its handler is waited for, all within
+    // SHUTDOWN_DEADLINE_MS. Runs once, from the console, the shutdown hook (e.g. SIGTERM in a rolling
+    // restart) or the accept loop ending; a later caller waits for the first one to finish.
     public void stopServer() {
-        running = false;
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+        synchronized (stopLock) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            long deadline = System.currentTimeMillis() + SHUTDOWN_DEADLINE_MS;
+            running = false;
+            try {
+                if (serverSocket != null && !serverSocket.isClosed()) {
+                    serverSocket.close();
+                }
+            } catch (IOException e) {
+                System.err.println("[Server] Error stopping server: " + e.getMessage());
             }
 
-        } catch (IOException e) {
-            System.err.println("[Server] Error stopping server: " + e.getMessage());
+            synchronized (boardLock) {
+                closing = true;
+                if (saveFile != null) {
+                    try {
+                        saveBoard(saveFile);
+                    } catch (IOException e) {
+                        System.err.println("[Server] Could not save the board to " + saveFile + ": " + e.getMessage());
+                    }
+                }
+                if (archive != null) {
+                    archive.close();
+                    archive = null;
+                }
+            }
+            presence.stop();
+            disconnectAll(deadline);
+
+            metrics.stop();
+            reaper.stop();
+            flattener.shutdownNow();
+            System.out.println("[Server] Metrics: " + metrics.summary());
+            if (offHeap != null) {
+                System.out.println("[Server] Off-heap store: " + offHeap.getStoredBytes() / 1024 + " KB of encoded ops.");
+            }
+            if (recorder != null) {
+                recorder.close();
+            }
+            if (cluster != null) {
+                cluster.stop();
+            }
+            System.out.println("[Server] Whiteboard server stopped.");
         }
-        System.out.println("[Server] Whiteboard server stopped.");
     }
 
-    public List<Shapes> getShapeList() {
-        return shapeList;
+    // Every handler's writer sends the BYE and closes its socket, so one stuck client can't hold up the
+    // rest. Sockets still open at the deadline are closed, and the handlers get whatever time is left.
+    private void disconnectAll(long deadline) {
+        DrawCommand bye = new DrawCommand(DrawCommand.CommandType.BYE, "Server", "The server is shutting down.");
+        ByteBuffer wire = OffHeapStore.wireOf(bye);
+        for (ClientHandler h : handlerThreads.keySet()) {
+            h.sendCommand(bye, wire);
+            h.closeAfterSent();
+        }
+        for (ClientHandler h : handlerThreads.keySet()) {
+            try {
+                h.awaitClosed(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (ClientHandler h : handlerThreads.keySet()) {
+            try {
+                h.closeSocket();
+            } catch (IOException e) {
+                System.err.println("[Server] Error closing connection: " + e.getMessage());
+            }
+        }
+        for (Thread t : handlerThreads.values()) {
+            try {
+                t.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (!handlerThreads.isEmpty()) {
+            System.out.println("[Server] " + handlerThreads.size() + " connection handlers still running at the shutdown deadline.");
+        }
     }
 
-    public List<StrokeData> getStrokes() {
-        return strokes;
+    public BoardLog getBoardLog() {
+        return boardLog;
     }
 
-    public List<DrawText> getStrings() {
-        return strings;
+    public String getBoardId() {
+        return boardId;
     }
 
-    public List<ChatData> getChats() {
+    public ChatStore getChats() {
         return chats;
     }
 
@@ -158,24 +818,28 @@ public class CreateWhiteBoard {
         chats.clear();
     }
 
-    public void addChat(ChatData chat) {
-        chats.add(chat);
+    public int userCount() {
+        return roster.size();
     }
 
-    public synchronized int userCount() {
-        return users.size();
+    public Roster getRoster() {
+        return roster;
     }
 
-    public synchronized List<String> getUsers() {
-        return users;
+    public SessionRegistry getSessions() {
+        return sessions;
     }
 
-    public synchronized void addUser(String user) {
-        users.add(user);
+    public Object getBoardLock() {
+        return boardLock;
     }
 
-    public synchronized void removeUser(String user) {
-        users.remove(user);
+    public String getNodeId() {
+        return cluster != null ? cluster.getNodeId() : "local";
+    }
+
+    public void setCluster(ClusterNode cluster) {
+        this.cluster = cluster;
     }
 
     public void setManagerUsername(String username) {
@@ -188,7 +852,7 @@ public class CreateWhiteBoard {
 
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.err.println("Usage: java CreateWhiteBoard <ServerIPAddress> <port> <managerUsername>");
+            System.err.println("Usage: java CreateWhiteBoard <port> <managerUsername> [--cluster-port <port> | --join <primaryHost>:<clusterPort>] [--resume-grace <seconds>] [--allow-file <path>] [--join-token <token>] [--max-connections <n>] [--max-pending <n>] [--compression on|off] [--load <boardFile>] [--record <recordingFile>] [--memory-budget <MB>] [--off-heap on|off] [--heartbeat-timeout <seconds>] [--save <boardFile>]");
             System.exit(1);
         }
 
@@ -196,6 +860,51 @@ public class CreateWhiteBoard {
         String managerUsername = args[1];
 
         CreateWhiteBoard server = new CreateWhiteBoard(port, managerUsername);
+        Path boardFile = null;      // loaded once every option is known, it depends on the cluster role
+
+        // e.g. java CreateWhiteBoard 5000 alice --cluster-port 7000
+        //      java CreateWhiteBoard 5001 alice --join localhost:7000
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--cluster-port" -> server.setCluster(new ClusterNode(server, Integer.parseInt(args[i + 1])));
+                case "--join" -> {
+                    String[] hostPort = args[i + 1].split(":");
+                    server.setCluster(new ClusterNode(server, hostPort[0], Integer.parseInt(hostPort[1])));
+                }
+                case "--resume-grace" -> server.getSessions().setGraceMillis(Long.parseLong(args[i + 1]) * 1000);
+                case "--allow-file" -> {
+                    try {
+                        server.getApprovalPolicy().loadAllowlist(Path.of(args[i + 1]));
+                    } catch (IOException e) {
+                        System.err.println("[Server] Could not read allowlist " + args[i + 1] + ": " + e.getMessage());
+                    }
+                }
+                case "--join-token" -> server.getApprovalPolicy().setJoinToken(args[i + 1]);
+                case "--max-connections" -> server.maxConnections = Integer.parseInt(args[i + 1]);
+                case "--max-pending" -> server.maxPending = Integer.parseInt(args[i + 1]);
+                case "--compression" -> server.compressionEnabled = !"off".equals(args[i + 1]);
+                case "--load" -> boardFile = Path.of(args[i + 1]);
+                case "--save" -> server.saveFile = Path.of(args[i + 1]);
+                case "--memory-budget" -> server.memoryBudget = Long.parseLong(args[i + 1]) << 20;
+                case "--heartbeat-timeout" -> server.reaper.setTimeoutMillis(Long.parseLong(args[i + 1]) * 1000);
+                case "--off-heap" -> server.offHeap = "on".equals(args[i + 1]) ? new OffHeapStore() : null;
+                case "--record" -> {
+                    try {
+                        server.recorder = new SessionRecorder(Path.of(args[i + 1]));
+                    } catch (IOException e) {
+                        System.err.println("[Server] Could not record to " + args[i + 1] + ": " + e.getMessage());
+                    }
+                }
+                default -> System.err.println("Ignoring unknown option " + args[i]);
+            }
+        }
+        if (boardFile != null) {
+            try {
+                server.loadBoard(boardFile);
+            } catch (IOException e) {
+                System.err.println("[Server] Could not load board " + boardFile + ": " + e.getMessage());
+            }
+        }
         server.startServer();
     }
 }
@@ -0,0 +1,65 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class DisplayList implements Iterable<DrawCommand> {
+    // Board items in the order they were committed, which is also the order they are painted in.
+    // Stored in fixed-size chunks so appending never copies the existing items, even at 100k+ entries.
+    private static final int CHUNK_SIZE = 1024;
+
+    private final ArrayList<DrawCommand[]> chunks = new ArrayList<>();
+    private int size = 0;
+
+    public void add(DrawCommand op) {
+        if (size % CHUNK_SIZE == 0) {
+            chunks.add(new DrawCommand[CHUNK_SIZE]);
+        }
+        chunks.get(size / CHUNK_SIZE)[size % CHUNK_SIZE] = op;
+        size++;
+    }
+
+    public DrawCommand get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + size);
+        }
+        return chunks.get(i / CHUNK_SIZE)[i % CHUNK_SIZE];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        chunks.clear();
+        size = 0;
+    }
+
+    @Override
+    public Iterator<DrawCommand> iterator() {
+        return iterator(0);
+    }
+
+    public Iterator<DrawCommand> iterator(int from) {
+        return new Iterator<>() {
+            private int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public DrawCommand next() {
+                if (next >= size) throw new NoSuchElementException();
+                DrawCommand op = chunks.get(next / CHUNK_SIZE)[next % CHUNK_SIZE];
+                next++;
+                return op;
+            }
+        };
+    }
+
+    // Iterable view starting at index from, for for-each loops
+    public Iterable<DrawCommand> from(int from) {
+        return () -> iterator(from);
+    }
+}
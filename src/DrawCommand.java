@@ -1,3 +1,4 @@
+import java.nio.ByteBuffer;
 import java.awt.*;
 import java.io.Serial;
 import java.io.Serializable;
@@ -8,7 +9,7 @@ public class DrawCommand implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    public enum CommandType { STROKE, SHAPE, TEXT, CLEAR, HELLO, BYE, CHAT, KICK, USER, ACTIVE, AUTH, MGRINFO }
+    public enum CommandType { STROKE, SHAPE, TEXT, CLEAR, HELLO, BYE, CHAT, KICK, USER, ACTIVE, AUTH, MGRINFO, ACK, SESSION, UNDO, REDO, REMOVE, ERASE, CHATPAGE, PRESENCE, BASE, PING }
 
     private ArrayList<String> userList;
     private final CommandType type;
@@ -18,6 +19,20 @@ public class DrawCommand implements Serializable {
     private final String chatText;
     private boolean intermediate;
     private final String username;
+    private long seq;                   // board sequence number, 0 until the server commits the op
+    private String token;               // resume token presented with HELLO
+    private String joinToken;           // HELLO: board join token, lets the server approve without the manager
+    private String compression;         // HELLO: codec the client offers, or in the server's reply the one it accepted
+    private long[] targets;             // REMOVE: seqs it removes, restored item: the seq it brings back
+    private boolean undo;               // REMOVE: made by an undo, so what it removes can be redone
+    private long chatId;                // CHAT: position in the board's chat history, CHATPAGE: page boundary
+    private PresenceFrame presence;     // PRESENCE: cursor positions
+    private BaseLayer base;             // BASE: old items flattened into an image
+    private transient ByteBuffer wire;  // server only: the op already encoded, see OffHeapStore
+    private long rosterVersion;         // USER/BYE: roster version after the join, leave or snapshot
+    private long itemId;                // SHAPE/STROKE: sender's counter for the drawing, shared by its previews and final item
+    private long opId;                  // sender's id for its own board op, kept on the committed op and echoed in its ACK
+    private transient boolean removed;  // set locally once a REMOVE has taken this item off the board
 
     /** Constructor for freehand stroke */
     public DrawCommand(StrokeData stroke) {
@@ -27,7 +42,7 @@ public class DrawCommand implements Serializable {
         this.textData = null;
         this.username = null;
         this.chatText = null;
-        this.intermediate = false;
+        this.intermediate = stroke.isIntermediate();
         this.userList = null;
     }
 
@@ -38,8 +53,46 @@ public class DrawCommand implements Serializable {
         this.textData = null;
         this.username = username;
         this.chatText = null;
+        this.intermediate = stroke.isIntermediate();
+        this.userList = null;
+    }
+
+    /** Constructor for an eraser pass */
+    public DrawCommand(CommandType type, StrokeData stroke, String username) {
+        this.type = type;
+        this.stroke = stroke;
+        this.shape = null;
+        this.textData = null;
+        this.username = username;
+        this.chatText = null;
+        this.intermediate = false;
+        this.userList = null;
+    }
+
+    /** Constructor for cursor presence */
+    public DrawCommand(PresenceFrame presence) {
+        this.type = CommandType.PRESENCE;
+        this.stroke = null;
+        this.shape = null;
+        this.textData = null;
+        this.username = null;
+        this.chatText = null;
+        this.intermediate = false;
+        this.userList = null;
+        this.presence = presence;
+    }
+
+    /** Constructor for a flattened base layer */
+    public DrawCommand(BaseLayer base) {
+        this.type = CommandType.BASE;
+        this.stroke = null;
+        this.shape = null;
+        this.textData = null;
+        this.username = null;
+        this.chatText = null;
         this.intermediate = false;
         this.userList = null;
+        this.base = base;
     }
 
     /** Constructor for shape drawing with username */
@@ -50,7 +103,7 @@ public class DrawCommand implements Serializable {
         this.textData = null;
         this.username = username;
         this.chatText = null;
-        this.intermediate = false;
+        this.intermediate = shape.getIntermediate();
         this.userList = null;
     }
 
@@ -74,7 +127,7 @@ public class DrawCommand implements Serializable {
         this.textData = null;
         this.username = null;
         this.chatText = null;
-        this.intermediate = false;
+        this.intermediate = shape.getIntermediate();
         this.userList = null;
     }
 
@@ -154,6 +207,16 @@ public class DrawCommand implements Serializable {
         return textData;
     }
 
+    // The shape, stroke or text this command carries, null for everything else
+    public BoardItem getItem() {
+        return switch (type) {
+            case SHAPE -> shape;
+            case STROKE -> stroke;
+            case TEXT -> textData;
+            default -> null;
+        };
+    }
+
     public String getUsername() {
         return username;
     }
@@ -170,8 +233,112 @@ public class DrawCommand implements Serializable {
         return userList;
     }
 
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public long[] getTargets() {
+        return targets;
+    }
+
+    public void setTargets(long[] targets) {
+        this.targets = targets;
+    }
+
+    public boolean isUndo() {
+        return undo;
+    }
+
+    public void setUndo(boolean undo) {
+        this.undo = undo;
+    }
+
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    public void setRemoved(boolean removed) {
+        this.removed = removed;
+    }
+
+    public long getItemId() {
+        return itemId;
+    }
+
+    public void setItemId(long itemId) {
+        this.itemId = itemId;
+    }
+
+    public long getOpId() {
+        return opId;
+    }
+
+    public void setOpId(long opId) {
+        this.opId = opId;
+    }
+
+    public long getRosterVersion() {
+        return rosterVersion;
+    }
+
+    public void setRosterVersion(long rosterVersion) {
+        this.rosterVersion = rosterVersion;
+    }
+
+    public PresenceFrame getPresence() {
+        return presence;
+    }
+
+    public BaseLayer getBase() {
+        return base;
+    }
+
+    public ByteBuffer getWire() {
+        return wire;
+    }
+
+    public void setWire(ByteBuffer wire) {
+        this.wire = wire;
+    }
+
+    public long getChatId() {
+        return chatId;
+    }
+
+    public void setChatId(long chatId) {
+        this.chatId = chatId;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    public String getJoinToken() {
+        return joinToken;
+    }
+
+    public void setJoinToken(String joinToken) {
+        this.joinToken = joinToken;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
     @Override
     public String toString() {
-        return "[DrawCommand: type=" + type + ", from=" + username + "]";
+        return "[DrawCommand: type=" + type + ", from=" + username + ", seq=" + seq + "]";
     }
 }
@@ -1,11 +1,14 @@
 import java.awt.*;
+import java.awt.font.FontRenderContext;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.Objects;
 
-public final class DrawText implements Serializable {
+public final class DrawText implements BoardItem, Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
+    private static final String FONT = "Arial";
+    private static final FontRenderContext FRC = new FontRenderContext(null, true, true);
     private final String text;
     private final Point pos;
     private final int fontSize;
@@ -34,6 +37,22 @@ public final class DrawText implements Serializable {
         return color;
     }
 
+    @Override
+    public Rectangle getBounds() {
+        // pos is the baseline, so the text sits mostly above it
+        Rectangle r = new Font(FONT, Font.PLAIN, fontSize).getStringBounds(text, FRC).getBounds();
+        r.translate(pos.x, pos.y);
+        r.grow(2, 2);
+        return r;
+    }
+
+    @Override
+    public void draw(Graphics2D g) {
+        g.setColor(color);
+        g.setFont(new Font(FONT, Font.PLAIN, fontSize));
+        g.drawString(text, pos.x, pos.y);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) return true;
@@ -0,0 +1,119 @@
+import java.awt.*;
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Eraser {
+    // Turns an eraser pass into board ops: one REMOVE for every item the path touches, followed by the
+    // pieces of any stroke it only cut through. Only the candidates the spatial index returns are tested.
+
+    public static List<DrawCommand> erase(DrawCommand pass, SpatialIndex index) {
+        StrokeData path = pass.getStroke();
+        List<DrawCommand> ops = new ArrayList<>();
+        if (path == null || path.size() == 0) {
+            return ops;
+        }
+        float radius = path.getWidth() / 2;
+        List<Point> samples = sample(path, radius);
+
+        List<Long> removed = new ArrayList<>();
+        List<DrawCommand> pieces = new ArrayList<>();
+        for (DrawCommand op : index.query(path.getBounds())) {
+            if (op.isRemoved()) continue;
+            BoardItem item = op.getItem();
+
+            if (item instanceof StrokeData stroke) {
+                List<StrokeData> kept = split(stroke, samples, radius);
+                if (kept == null) continue;
+                removed.add(op.getSeq());
+                for (StrokeData piece : kept) {
+                    // Pieces stay with the stroke's owner, and point back at it like a restored item
+                    DrawCommand pieceOp = new DrawCommand(piece, op.getUsername());
+                    pieceOp.setTargets(new long[]{op.getSeq()});
+                    pieces.add(pieceOp);
+                }
+            } else if (item instanceof Shapes shape) {
+                Shape hitArea = new BasicStroke(shape.getStrokeWidth() + 2 * radius).createStrokedShape(shape.getOutline());
+                if (anyInside(hitArea, samples)) removed.add(op.getSeq());
+            } else if (item instanceof DrawText text) {
+                Rectangle hitArea = text.getBounds();
+                hitArea.grow((int) radius, (int) radius);
+                if (anyInside(hitArea, samples)) removed.add(op.getSeq());
+            }
+        }
+
+        if (!removed.isEmpty()) {
+            DrawCommand remove = new DrawCommand(DrawCommand.CommandType.REMOVE, pass.getUsername());
+            remove.setTargets(removed.stream().mapToLong(Long::longValue).toArray());
+            ops.add(remove);
+            ops.addAll(pieces);
+        }
+        return ops;
+    }
+
+    // Points along the eraser path no further apart than half its radius, so nothing slips between them
+    private static List<Point> sample(StrokeData path, float radius) {
+        List<Point> samples = new ArrayList<>();
+        double step = Math.max(1, radius / 2);
+        samples.add(path.getPoint(0));
+        for (int i = 1; i < path.size(); i++) {
+            Point a = path.getPoint(i - 1), b = path.getPoint(i);
+            int n = (int) Math.ceil(a.distance(b) / step);
+            for (int k = 1; k <= n; k++) {
+                samples.add(new Point((int) Math.round(a.x + (b.x - a.x) * (double) k / n),
+                                      (int) Math.round(a.y + (b.y - a.y) * (double) k / n)));
+            }
+        }
+        return samples;
+    }
+
+    private static boolean anyInside(Shape area, List<Point> samples) {
+        for (Point p : samples) {
+            if (area.contains(p)) return true;
+        }
+        return false;
+    }
+
+    private static boolean segmentHit(Point a, Point b, List<Point> samples, double reachSq) {
+        for (Point s : samples) {
+            if (Line2D.ptSegDistSq(a.x, a.y, b.x, b.y, s.x, s.y) <= reachSq) return true;
+        }
+        return false;
+    }
+
+    // The runs of the stroke the eraser didn't touch, or null if it wasn't touched at all
+    private static List<StrokeData> split(StrokeData stroke, List<Point> samples, float radius) {
+        double reach = radius + stroke.getWidth() / 2;
+        double reachSq = reach * reach;
+        List<StrokeData> kept = new ArrayList<>();
+        StrokeData run = null;
+        boolean hit = false;
+
+        for (int i = 0; i < stroke.size(); i++) {
+            Point p = stroke.getPoint(i);
+            boolean erased = false;
+            for (Point s : samples) {
+                if (p.distanceSq(s) <= reachSq) {
+                    erased = true;
+                    break;
+                }
+            }
+            if (erased) {
+                hit = true;
+                run = null;
+            } else {
+                if (run != null && segmentHit(stroke.getPoint(i - 1), p, samples, reachSq)) {
+                    // Both ends survive but the eraser crossed the segment between them
+                    hit = true;
+                    run = null;
+                }
+                if (run == null) {
+                    run = new StrokeData(stroke.getColor(), stroke.getWidth(), false);
+                    kept.add(run);
+                }
+                run.addPoint(p);
+            }
+        }
+        return hit ? kept : null;
+    }
+}
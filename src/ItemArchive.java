@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class ItemArchive {
+    // Board items that were flattened into the base layer, kept on disk so saving and exporting still
+    // have every item. Each flatten writes one BoardFile segment, read back through the mapped file.
+    // Past MAX_SEGMENTS they are merged into one, so a long session doesn't pile up small files.
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Path dir;
+    private final List<Path> segments = new ArrayList<>();
+    private int nextSegment = 0;
+
+    public ItemArchive(Path dir) {
+        this.dir = dir;
+    }
+
+    // In a temporary directory, removed again by close()
+    public static ItemArchive createTemp(String prefix) throws IOException {
+        return new ItemArchive(Files.createTempDirectory(prefix));
+    }
+
+    public synchronized void append(List<BoardItem> items) throws IOException {
+        if (items.isEmpty()) return;
+        Path segment = dir.resolve("archive-" + nextSegment++ + ".wbd");
+        BoardFile.write(segment, items);
+        segments.add(segment);
+        if (segments.size() > MAX_SEGMENTS) compact();
+    }
+
+    // Streams every segment into a new one, then deletes the old ones. The items are already archived,
+    // so if that fails they are just left in their segments.
+    private void compact() {
+        Path merged = dir.resolve("archive-" + nextSegment++ + ".wbd");
+        try {
+            BoardFile.write(merged, items());
+        } catch (IOException | IllegalStateException e) {
+            System.err.println("Could not compact the archive: " + e.getMessage());
+            delete(List.of(merged));
+            return;
+        }
+        List<Path> old = new ArrayList<>(segments);
+        segments.clear();
+        segments.add(merged);
+        delete(old);
+    }
+
+    // Every archived item, oldest first, decoded as it's reached
+    public synchronized Iterable<BoardItem> items() {
+        List<Path> files = new ArrayList<>(segments);
+        return () -> new Iterator<>() {
+            private int segment = 0;
+            private Iterator<BoardItem> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && segment < files.size()) {
+                    try {
+                        current = BoardFile.open(files.get(segment++)).iterator();
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Could not read the archive: " + e.getMessage(), e);
+                    }
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public BoardItem next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return current.next();
+            }
+        };
+    }
+
+    public synchronized boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    public synchronized void clear() {
+        delete(segments);
+        segments.clear();
+    }
+
+    // Deletes the segments and the directory, the archive is not used again
+    public synchronized void close() {
+        clear();
+        delete(List.of(dir));
+    }
+
+    private static void delete(List<Path> paths) {
+        for (Path path : paths) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.err.println("Could not delete " + path + ": " + e.getMessage());
+            }
+        }
+    }
+}
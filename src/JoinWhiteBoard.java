@@ -5,53 +5,89 @@ import javax.swing.border.TitledBorder;
 import javax.swing.event.TableModelEvent;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
-import javax.swing.text.BadLocationException;
-import javax.swing.text.SimpleAttributeSet;
-import javax.swing.text.StyleConstants;
-import javax.swing.text.StyledDocument;
 import java.awt.*;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
 import java.net.Socket;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
 
 public class JoinWhiteBoard {
+    private static final long RESUME_WINDOW_MS = 30_000;
+    private static final long RECONNECT_INTERVAL_MS = 1000;
+    private static final int PRESENCE_INTERVAL_MS = 66;
+    private static final int PING_INTERVAL_MS = 2000;
+    private static final long BYE_TIMEOUT_MS = 1000;
+    private static final int HEARTBEAT_INTERVAL_MS = 5000;     // well inside the server's idle timeout
+    private static final long ITEM_UPLOAD_DELAY_MS = 10;       // under the server's shape and stroke limits
+    private static final long TEXT_UPLOAD_DELAY_MS = 125;      // text is limited to 10 a second
+
     private static Canvas canvas;
     private ConnectionPanel connectionPanel = new ConnectionPanel(JoinWhiteBoard.this);
     private DrawPanel drawPanel = new DrawPanel();
     private ChatPanel chatPanel = new ChatPanel();
     private UserPanel userPanel = new UserPanel(this);
+    private PendingPanel pendingPanel = new PendingPanel();
 
     private boolean isConnected = false;
-    private Socket socket;
+    private volatile Socket socket;
     private ObjectInputStream in;
     private ObjectOutputStream out;
     private static String userName;
+    private static String joinToken;
     private static String serverIP;
     private static int serverPort;
     private String managerUsername;
-
-    private List<StrokeData> strokes        = new ArrayList<>();
-    private List<Shapes> shapeList          = new ArrayList<>();
-    private List<Shapes> intermediateShapes = new ArrayList<>();
-    private List<DrawText> strings          = new ArrayList<>();
+    private volatile String boardId;    // board the local copy belongs to, from MGRINFO
+    private volatile long lastSeq = 0;  // last board op applied locally, written on the EDT
+    private volatile String resumeToken;
+    private volatile boolean leaving = false;
+
+    private DisplayList displayList         = new DisplayList();
+    private BaseLayer baseLayer;                                    // old items, flattened by the server
+    private ItemArchive archive;
+    private Map<Long, DrawCommand> itemsBySeq = new HashMap<>();
+    private final SpatialIndex index        = new SpatialIndex();
+    // Own board ops already drawn here but not yet acknowledged, by op id in the order they were sent
+    private final Map<Long, DrawCommand> pending = new LinkedHashMap<>();
+    private long nextOpId = 0;
+    // Other users' drawings in progress, keyed by user and the sender's own item counter
+    private final Map<PreviewKey, BoardItem> previews = new HashMap<>();
+    private final Map<String, Long> finishedItemIds = new HashMap<>();     // last finished item per user
+    private long nextItemId = 0;
+    private volatile Thread boardUpload;     // the board being opened, null once it's cleared
     private List<ChatData> chats            = new ArrayList<>();
+    private final Map<String, Point> remoteCursors = new HashMap<>();    // other users' cursors, EDT only
+    private final Map<String, String> cursorNodes = new HashMap<>();     // server node each of them came through
+    private Point localCursor;
+    private short sentCursorX = -2, sentCursorY = -2;
+    private final Timer presenceTimer = new Timer(PRESENCE_INTERVAL_MS, e -> sendCursor());
+    private final SendThrottle throttle = new SendThrottle();
+    private volatile OutboundQueue outbound = new OutboundQueue();     // the current connection's, see openConnection
+    private Thread writer;
+    private final Timer pingTimer = new Timer(PING_INTERVAL_MS, e -> sendPing());
+    // Sent even when idle, the server closes connections it hears nothing from
+    private final Timer heartbeatTimer = new Timer(HEARTBEAT_INTERVAL_MS,
+            e -> sendMessage(new DrawCommand(DrawCommand.CommandType.ACTIVE, userName)));
+    private long rosterVersion = -1;    // version of the roster shown, -1 until the join snapshot arrives
+    private long oldestChatId = -1;     // oldest chat message held, 0 once there's no older history, -1 until joined
 
     // Connect to the Whiteboard server
     private void connectToServer(String host, int port) {
         try {
-            socket  = new Socket(host, port);
-            out     = new ObjectOutputStream(socket.getOutputStream());
-            in      = new ObjectInputStream(socket.getInputStream());
-            setConnected(true);
-            System.out.println("Connected to whiteboard server at " + host + ":" + port);
-
-            // Send a HELLO command to introduce myself
-            sendMessage(new DrawCommand(DrawCommand.CommandType.HELLO, userName, (ArrayList<String>) null));
-
-            new Thread(new SocketListener()).start();
+            leaving = false;
+            openConnection(host, port);
         } catch (IOException e) {
             JOptionPane.showMessageDialog(null, "Failed to connect to server: " + e.getMessage(),
                     "Connection Error", JOptionPane.ERROR_MESSAGE);
@@ -59,39 +95,189 @@ public class JoinWhiteBoard {
         }
     }
 
+    // Every connection gets its own socket, queue and writer. What was still queued on the last one is
+    // dropped with it, our unacknowledged ops are sent again from pending once the session is back.
+    private void openConnection(String host, int port) throws IOException {
+        closeConnection();
+        socket  = new Socket(host, port);
+        try {
+            handshake(host, port);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        writer = new Thread(new SocketWriter(outbound, out, socket), "board-writer");
+        writer.start();
+        new Thread(new SocketListener(in, socket, writer)).start();
+    }
+
+    private void closeConnection() {
+        if (writer != null) writer.interrupt();
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.err.println("Error closing the old connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handshake(String host, int port) throws IOException {
+        out     = new ObjectOutputStream(socket.getOutputStream());
+        in      = new ObjectInputStream(socket.getInputStream());
+        outbound = new OutboundQueue();
+        setConnected(true);
+        System.out.println("Connected to whiteboard server at " + host + ":" + port);
+
+        // Send a HELLO command to introduce myself, with how far this copy of the board got
+        // and the resume token if the server gave us one
+        DrawCommand hello = new DrawCommand(DrawCommand.CommandType.HELLO, userName, boardId);
+        hello.setSeq(lastSeq);
+        hello.setToken(resumeToken);
+        hello.setJoinToken(joinToken);
+        hello.setCompression(StreamCompression.DEFLATE);
+        out.writeObject(hello);     // written here, the writer thread starts once the codec is settled
+        out.flush();
+
+        // The server answers with the codec it accepted, both sides switch streams right after it
+        try {
+            DrawCommand reply = (DrawCommand) in.readObject();
+            if (reply.getType() != DrawCommand.CommandType.HELLO) {
+                handleServerMessage(reply);     // e.g. a BYE because the server is full
+            } else if (StreamCompression.isSupported(reply.getCompression())) {
+                out = new ObjectOutputStream(StreamCompression.compress(socket.getOutputStream()));
+                out.flush();
+                in = new ObjectInputStream(StreamCompression.decompress(socket.getInputStream()));
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // Retries for as long as the server holds our session, presenting the resume token each time
+    private void resumeConnection() {
+        long deadline = System.currentTimeMillis() + RESUME_WINDOW_MS;
+        while (!leaving && resumeToken != null && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(RECONNECT_INTERVAL_MS);
+                openConnection(serverIP, serverPort);
+                System.out.println("Reconnected, resuming from seq " + lastSeq);
+                return;
+            } catch (IOException e) {
+                System.err.println("Reconnect failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+        resumeToken = null;
+    }
+
     public void disconnectFromServer() {
+        leaving = true;
         try {
-            if (isConnected && out != null) {
+            if (isConnected && writer != null) {
+                // The writer stops after the BYE, the socket is only closed once it has gone out
                 sendMessage(new DrawCommand(DrawCommand.CommandType.BYE, userName, (ArrayList<String>) null));
-                out.flush();
+                writer.join(BYE_TIMEOUT_MS);
             }
             if (socket != null) socket.close();
         } catch (IOException e) {
             System.err.println("Error disconnecting: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
+            resumeToken = null;
             setConnected(false);
         }
     }
 
-    private void sendMessage(DrawCommand message) throws IOException {
-        if (isConnected && out != null) {
-            out.reset();
-            out.writeObject(message);
-            out.flush();
+    // Only queued, nothing on the EDT waits for the network. The writer thread sends it.
+    private void sendMessage(DrawCommand message) {
+        if (isConnected && !outbound.offer(message)) {
+            // Nothing has gone out for thousands of messages, start over on a new connection.
+            // The resumed session gets our unacknowledged ops again from pending.
+            System.err.println("The server is not taking our messages, reconnecting.");
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.err.println("Error closing the stalled connection: " + e.getMessage());
+            }
+        }
+    }
+
+    // Sends queued messages on one connection until it closes, or until our BYE has gone out
+    private class SocketWriter implements Runnable {
+        private final OutboundQueue queue;
+        private final ObjectOutputStream stream;
+        private final Socket connection;
+
+        SocketWriter(OutboundQueue queue, ObjectOutputStream stream, Socket connection) {
+            this.queue = queue;
+            this.stream = stream;
+            this.connection = connection;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    DrawCommand message = queue.take();
+                    long start = System.currentTimeMillis();
+                    stream.reset();
+                    stream.writeObject(message);
+                    stream.flush();
+                    throttle.wrote(System.currentTimeMillis() - start);
+                    if (message.getType() == DrawCommand.CommandType.BYE) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The connection is gone or replaced by a new one
+            } catch (IOException e) {
+                System.err.println("Error sending to server: " + e.getMessage());
+                try {
+                    connection.close();     // the listener sees it and reconnects
+                } catch (IOException ignored) {
+                }
+            }
         }
     }
 
     private class SocketListener implements Runnable {
+        private final ObjectInputStream stream;
+        private final Socket connection;
+        private final Thread connectionWriter;
+
+        SocketListener(ObjectInputStream stream, Socket connection, Thread connectionWriter) {
+            this.stream = stream;
+            this.connection = connection;
+            this.connectionWriter = connectionWriter;
+        }
+
         @Override
         public void run() {
             try {
                 DrawCommand msg;
-                while ((msg = (DrawCommand) in.readObject()) != null) {
+                while ((msg = (DrawCommand) stream.readObject()) != null) {
+                    if (msg.getType() == DrawCommand.CommandType.BYE && msg.getChatText() != null) {
+                        resumeToken = null; // kicked or denied, don't try to come back
+                    }
                     handleServerMessage(msg);
                 }
             } catch (IOException e) {
                 System.err.println("Disconnected from server: " + e.getMessage());
+                connectionWriter.interrupt();
+                try {
+                    connection.close();
+                } catch (IOException ignored) {
+                }
+                if (connection != socket) {
+                    return;     // closed by openConnection for a newer connection
+                }
                 setConnected(false);
+                if (!leaving && resumeToken != null) {
+                    resumeConnection();
+                }
             } catch (ClassNotFoundException e) {
                 throw new RuntimeException(e);
             }
@@ -100,24 +286,16 @@ public class JoinWhiteBoard {
 
     private void handleServerMessage(DrawCommand msg) {
         SwingUtilities.invokeLater(() -> {
-            if (msg.getUsername() != null && msg.getUsername().equals(userName)) {
-                switch (msg.getType()) {
-                    case SHAPE -> {
-                        // Only add final shapes to the master list
-                        if (msg.getShape() != null && !msg.getShape().getIntermediate()) {
-                            shapeList.add(msg.getShape());
-                        }}
-                    case STROKE -> {
-                        // Only add final strokes to the master list
-                        if (msg.getStroke() != null && !msg.getStroke().isIntermediate()) {
-                            strokes.add(msg.getStroke());
-                        }}
-                    case TEXT -> {
-                        // Text is always final
-                        if (msg.getText() != null) {
-                            strings.add(msg.getText());
-                        }}
+            if (msg.getSeq() > 0) {
+                if (msg.getSeq() <= lastSeq) {
+                    return; // already applied, e.g. replayed again after a reconnect
                 }
+                lastSeq = msg.getSeq();
+            } else if (msg.getType() == DrawCommand.CommandType.CLEAR) {
+                lastSeq = 0; // an unstamped CLEAR starts a full replay
+            }
+            if (msg.getOpId() > 0 && userName.equals(msg.getUsername()) && settle(msg.getOpId(), msg.getSeq())) {
+                return; // our own op replayed after its ACK was lost, it's drawn already
             }
 
             switch (msg.getType()) {
@@ -126,94 +304,141 @@ public class JoinWhiteBoard {
                 }
 
                 case AUTH -> {
-                    int choice = JOptionPane.showConfirmDialog(
-                            null,
-                            msg.getUsername() + " wants to join this Whiteboard. Allow?",
-                            "Confirmation",
-                            JOptionPane.YES_NO_OPTION,
-                            JOptionPane.QUESTION_MESSAGE
-                    );
-                    try {
-                        if (choice == JOptionPane.YES_OPTION) {
-                            sendMessage(new DrawCommand(DrawCommand.CommandType.AUTH, msg.getUsername(), "YES"));
-                        } else {
-                            sendMessage(new DrawCommand(DrawCommand.CommandType.AUTH, msg.getUsername(), "NO"));
+                    // Queued on the pending panel, the board keeps running while the manager decides
+                    if ("GONE".equals(msg.getChatText())) {
+                        pendingPanel.removeRequest(msg.getUsername());
+                    } else {
+                        pendingPanel.addRequest(msg.getUsername());
+                    }
+                }
+
+                case SESSION -> {
+                    boolean resumed = msg.getChatText().equals(resumeToken);
+                    resumeToken = msg.getChatText();
+                    resendPending(resumed);
+                }
+
+                case PING -> throttle.pongReceived(System.currentTimeMillis());
+
+                case BASE -> applyBase(msg.getBase());
+
+                case ACK -> {
+                    if ("REJECTED".equals(msg.getChatText())) {
+                        dropRejected(msg.getOpId());
+                    } else {
+                        settle(msg.getOpId(), msg.getSeq());
+                    }
+                }
+
+                case REMOVE -> {
+                    // Tombstone from an undo or the eraser, only the area the item covered is repainted
+                    for (long target : msg.getTargets()) {
+                        DrawCommand op = itemsBySeq.remove(target);
+                        if (op != null && !op.isRemoved()) {
+                            op.setRemoved(true);
+                            index.remove(op);
+                            canvas.redrawRegion(op.getItem().getBounds());
                         }
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
                     }
+                    canvas.repaint();
                 }
 
                 case MGRINFO -> {
+                    if (msg.getChatText() != null) {
+                        boardId = msg.getChatText();
+                    }
                     String manager = msg.getUsername();
                     this.setManagerUsername(manager); // Store it locally
                     userPanel.setManager(manager); // Pass it to the panel for rendering
 
                     if (manager.equals(userName)) {
                         userPanel.setIsManager(true); // Tell panel "you are the manager"
+                        drawPanel.setBoardFilesEnabled(true);
                     }
 
                 }
 
                 case TEXT -> {
                     DrawText dt = msg.getText();
-                    strings.add(dt);            // Add to list
+                    addToDisplayList(msg);      // Add to list
                     canvas.drawTextOnBuffer(dt);  // Draw on buffer
                     canvas.repaint();
                 }
 
-                case CHAT -> {addMessage(chatPanel.getChatConversation(), msg.getUsername()
-                        + "> " + msg.getChatText()
-                        + "\n", false);}
+                case CHAT -> {
+                    if (msg.getChatId() > 0 && oldestChatId > 0 && msg.getChatId() < oldestChatId) {
+                        // Part of an older page, these arrive newest first
+                        boolean own = userName.equals(msg.getUsername());
+                        String text = own ? msg.getChatText() + " <me" : msg.getUsername() + "> " + msg.getChatText();
+                        chatPanel.prependMessage(new ChatListModel.Line(text, own, msg.getChatId()));
+                    } else {
+                        chatPanel.addMessage(new ChatListModel.Line(msg.getUsername()
+                                + "> " + msg.getChatText(), false, msg.getChatId()));
+                    }
+                }
+
+                case PRESENCE -> {
+                    PresenceFrame frame = msg.getPresence();
+                    if (frame.isKeyframe()) {
+                        // Every cursor the node still shows is in the frame, so any other one of its was hidden
+                        cursorNodes.values().removeIf(node -> node.equals(frame.getNode()));
+                        remoteCursors.keySet().retainAll(cursorNodes.keySet());
+                    }
+                    for (int i = 0; i < frame.size(); i++) {
+                        if (frame.getUser(i).equals(userName)) continue;
+                        if (frame.isHidden(i)) {
+                            remoteCursors.remove(frame.getUser(i));
+                            cursorNodes.remove(frame.getUser(i));
+                        } else {
+                            remoteCursors.put(frame.getUser(i), new Point(frame.getX(i), frame.getY(i)));
+                            cursorNodes.put(frame.getUser(i), frame.getNode());
+                        }
+                    }
+                    canvas.repaint();
+                }
+
+                case CHATPAGE -> {
+                    oldestChatId = msg.getChatId();
+                    chatPanel.pageLoaded();
+                }
 
                 case CLEAR -> {
                     canvas.clearWhiteBoard();
+                    // Ours still pending were committed after this CLEAR, so they stay
+                    for (DrawCommand own : pendingSinceClear()) {
+                        addToDisplayList(own);
+                        canvas.drawItemOnBuffer(own.getItem());
+                    }
                 }
 
                 case USER -> {
                     if (msg.getUserList() != null) {
+                        rosterVersion = msg.getRosterVersion();
                         userPanel.setUsers(msg.getUserList());
-                    } else if (msg.getUsername() != null) {
+                    } else if (applyRosterDelta(msg)) {
                         userPanel.addUser(msg.getUsername());
                     }
-                    canvas.repaint();
                 }
 
-                case SHAPE -> {
-                    Shapes shape = msg.getShape();
-                    boolean isIntermediate = shape.getIntermediate();
-
-                    if (isIntermediate) {
-                        // Intermediate shapes just get shown not added to list
-                        intermediateShapes.removeIf(prev ->
-                                prev.getClass() == shape.getClass() &&
-                                        prev.getStartPoint().equals(shape.getStartPoint()));
-                        intermediateShapes.add(shape);
+                case SHAPE, STROKE -> {
+                    PreviewKey key = new PreviewKey(msg.getUsername(), msg.getItemId());
+                    if (msg.getIntermediate()) {
+                        // Previews are only shown, each one replaces the last from the same drawing. Item ids
+                        // only grow, so one relayed late, after its drawing or a newer one was finished, is
+                        // dropped rather than left on the board for good.
+                        if (msg.getItemId() > finishedItemIds.getOrDefault(msg.getUsername(), 0L)) {
+                            previews.put(key, msg.getItem());
+                        }
                     } else {
-                        // This is a final shape from another user
-                        intermediateShapes.removeIf(prev ->
-                                prev.getClass() == shape.getClass() &&
-                                        prev.getStartPoint().equals(shape.getStartPoint())
-                        );
-
-                        shapeList.add(shape);               // Add final shape to list
-                        canvas.drawShapeOnBuffer(shape);    // Draw final shape on buffer
-                    }
-                    canvas.repaint();
-                }
-
-                case STROKE -> {
-                    StrokeData stroke = msg.getStroke();
-
-                    // Only add final strokes to the master list
-                    if (!stroke.isIntermediate()) {
-                        strokes.add(stroke);
+                        // The final item takes its own preview's place on the board
+                        if (msg.getItemId() > 0) {
+                            previews.remove(key);
+                            finishedItemIds.merge(msg.getUsername(), msg.getItemId(), Math::max);
+                        }
+                        addToDisplayList(msg);
+                        canvas.drawItemOnBuffer(msg.getItem());
                     }
-
-                    // Draw all strokes to the buffer
-                    canvas.drawStrokeOnBuffer(stroke);
                     canvas.repaint();
-
                 }
 
                 case BYE -> {
@@ -222,7 +447,11 @@ public class JoinWhiteBoard {
                                 "Disconnected: " + msg.getChatText(),
                                 "Connection Closed", JOptionPane.WARNING_MESSAGE);
                     } else {
-                        userPanel.removeUser(msg.getUsername());
+                        if (applyRosterDelta(msg)) userPanel.removeUser(msg.getUsername());
+                        remoteCursors.remove(msg.getUsername());
+                        cursorNodes.remove(msg.getUsername());
+                        previews.keySet().removeIf(k -> k.user().equals(msg.getUsername()));
+                        finishedItemIds.remove(msg.getUsername());
                         canvas.repaint();
                     }
                 }
@@ -251,6 +480,10 @@ public class JoinWhiteBoard {
         c.fill = GridBagConstraints.BOTH;
         toolpanel.add(userPanel, c);
         c.gridy++;
+        c.weighty = 0;
+        toolpanel.add(pendingPanel, c);
+        c.gridy++;
+        c.weighty = 1;
         c.anchor = GridBagConstraints.SOUTH;
         c.fill = GridBagConstraints.BOTH;
         c.weightx = 1;
@@ -330,6 +563,11 @@ public class JoinWhiteBoard {
         private JComboBox shapeSelector = new JComboBox<>(
                 new String[]{"Triangle", "Rectangle", "Oval", "Line"});
         private JButton clearButton;
+        private JButton undoButton;
+        private JButton redoButton;
+        private JButton saveButton;
+        private JButton openButton;
+        private JButton exportButton;
         private JTextField drawText;
         private JLabel colorLabel;
         private JComboBox<String> colorSelector = new JComboBox<>(
@@ -435,6 +673,19 @@ public class JoinWhiteBoard {
             c.gridy++;
             c.gridx--;
             add(clearButton = new JButton("Clear All"), c);
+            c.gridy++;
+            add(undoButton = new JButton("Undo"), c);
+            c.gridx++;
+            add(redoButton = new JButton("Redo"), c);
+            c.gridy++;
+            c.gridx--;
+            add(saveButton = new JButton("Save..."), c);
+            c.gridx++;
+            add(openButton = new JButton("Open..."), c);
+            setBoardFilesEnabled(false);
+            c.gridy++;
+            c.gridx--;
+            add(exportButton = new JButton("Export..."), c);
 
             colorSelector.addActionListener(e -> {
                 applySelectedColor();
@@ -482,6 +733,7 @@ public class JoinWhiteBoard {
 
             modeDraw.addActionListener(e -> {
                 canvas.setCursor(Cursor.getPredefinedCursor(Cursor.CROSSHAIR_CURSOR));
+                canvas.setEraseMode(false);
 
                 colorSelector.setEnabled(true);
                 shapeSelector.setEnabled(true);
@@ -502,8 +754,7 @@ public class JoinWhiteBoard {
             modeErase.addActionListener(e -> {
                 int size = (int) eraserSizeSpinner.getValue();
 
-                canvas.setShapeColor(Color.WHITE);
-                canvas.setSelectedShape("Free Draw");
+                canvas.setEraseMode(true);
                 canvas.setStrokeWidth(size);
                 canvas.updateEraserCursor(size);
 
@@ -516,23 +767,71 @@ public class JoinWhiteBoard {
                 strokeSizeSpinner.setEnabled(false);
             });
 
-            clearButton.addActionListener(e -> {
+            clearButton.addActionListener(e -> clearAll());
+
+            saveButton.addActionListener(e -> {
+                JFileChooser chooser = new JFileChooser();
+                if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+                try {
+                    saveBoard(chooser.getSelectedFile().toPath());
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(null, "Could not save the board: " + ex.getMessage(),
+                            "Save Failed", JOptionPane.ERROR_MESSAGE);
+                }
+            });
+
+            exportButton.addActionListener(e -> {
+                JFileChooser chooser = new JFileChooser();
+                chooser.setDialogTitle("Export as .png or .svg");
+                if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+                Path file = chooser.getSelectedFile().toPath();
+                double scale = 1;
+                if (!file.toString().toLowerCase().endsWith(".svg")) {
+                    String answer = JOptionPane.showInputDialog(this, "Scale:", "1");
+                    if (answer == null) return;
+                    try {
+                        scale = Double.parseDouble(answer);
+                    } catch (NumberFormatException ex) {
+                        JOptionPane.showMessageDialog(null, "Invalid scale");
+                        return;
+                    }
+                }
+                exportBoard(file, scale);
+            });
+
+            openButton.addActionListener(e -> {
+                JFileChooser chooser = new JFileChooser();
+                if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
                 try {
-                    sendMessage(new DrawCommand(DrawCommand.CommandType.CLEAR));
-                    canvas.clearWhiteBoard(); // clear local immediately
+                    openBoard(chooser.getSelectedFile().toPath());
                 } catch (IOException ex) {
-                    throw new RuntimeException(ex);
+                    JOptionPane.showMessageDialog(null, "Could not open the board: " + ex.getMessage(),
+                            "Open Failed", JOptionPane.ERROR_MESSAGE);
                 }
             });
+
+            undoButton.addActionListener(e -> undo());
+            redoButton.addActionListener(e -> redo());
+        }
+
+        // Only the manager saves and opens boards
+        public void setBoardFilesEnabled(boolean enabled) {
+            saveButton.setEnabled(enabled);
+            openButton.setEnabled(enabled);
         }
     }
 
     public class ChatPanel extends JPanel {
         // Panel that contains the chat history, new message area, and send button
-        private JTextPane chatConversation;
+        private static final int MAX_CHAT_LINES = 1000;
+
+        private final ChatListModel chatModel = new ChatListModel(MAX_CHAT_LINES, this::flushChat);
+        private JList<ChatListModel.Line> chatConversation;
         private JTextField chatMsg;
         private JButton chatSend;
         private JScrollPane chatScroll;
+        private boolean pageRequested = false;
+        private int heightBeforePage;
 
         public ChatPanel() {
             setLayout(new GridBagLayout());
@@ -542,10 +841,23 @@ public class JoinWhiteBoard {
             c.gridx = 0;
             c.gridy = 0;
             c.anchor = GridBagConstraints.WEST;
-            chatConversation = new JTextPane();
-            chatConversation.setEditable(false);
+            // Only the visible rows are rendered, a fixed cell size means rows never have to be measured
+            chatConversation = new JList<>(chatModel);
+            chatConversation.setCellRenderer(new ChatLineRenderer());
+            chatConversation.setFixedCellHeight(chatConversation.getFontMetrics(chatConversation.getFont()).getHeight() + 4);
+            chatConversation.setFixedCellWidth(1);
+            chatConversation.setFocusable(false);
+            ToolTipManager.sharedInstance().registerComponent(chatConversation);
             chatScroll = new JScrollPane(chatConversation);
             chatScroll.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+            chatScroll.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+            // Older history is only fetched when the user scrolls up past the top
+            chatScroll.addMouseWheelListener(e -> {
+                if (e.getWheelRotation() < 0) requestOlderPage();
+            });
+            chatScroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+                if (e.getValueIsAdjusting()) requestOlderPage();
+            });
             c.fill = GridBagConstraints.BOTH;
             c.weightx = 1.0;
             c.weighty = 1.0;
@@ -565,47 +877,142 @@ public class JoinWhiteBoard {
                 @Override
                 public void keyPressed(KeyEvent e) {
                     if (e.getKeyCode() == KeyEvent.VK_ENTER) {
-                        try {
-                            sendMessage(new DrawCommand(DrawCommand.CommandType.CHAT, userName, chatMsg.getText()));
-                            addMessage(chatConversation, chatMsg.getText() + " <me\n", true);
-                            chatMsg.setText("");
-                        } catch (IOException ex) {
-                            System.err.println("[Server] Error: " + ex.getMessage());
-                            throw new RuntimeException(ex);
-                        }
+                        sendChat();
                     }
                 }
             });
 
-            chatSend.addActionListener(e -> {
-                try {
-                    sendMessage(new DrawCommand(DrawCommand.CommandType.CHAT, userName, chatMsg.getText()));
-                    addMessage(chatConversation, chatMsg.getText() + " <me\n", true);
-                    chatMsg.setText("");
-                } catch (IOException ex) {
-                    System.err.println("[Server] Error: " + ex.getMessage());
-                    throw new RuntimeException(ex);
-                }
+            chatSend.addActionListener(e -> sendChat());
+        }
+
+        private void sendChat() {
+            sendMessage(new DrawCommand(DrawCommand.CommandType.CHAT, userName, chatMsg.getText()));
+            addMessage(new ChatListModel.Line(chatMsg.getText() + " <me", true, 0));
+            chatMsg.setText("");
+        }
+
+        public void addMessage(ChatListModel.Line line) {
+            chatModel.append(line);
+        }
+
+        public void prependMessage(ChatListModel.Line line) {
+            chatModel.prepend(line);
+        }
+
+        public void clearMessages() {
+            chatModel.clear();
+            pageRequested = false;
+        }
+
+        // Runs once per frame with messages queued. Old lines are only trimmed while following the
+        // newest messages, so history the user paged in stays put while they read it.
+        private void flushChat() {
+            JScrollBar bar = chatScroll.getVerticalScrollBar();
+            boolean following = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - chatConversation.getFixedCellHeight();
+            chatModel.flush(following && !pageRequested);
+            if (chatModel.getLastTrimmedId() >= oldestChatId && chatModel.getLastTrimmedId() > 0) {
+                oldestChatId = chatModel.getLastTrimmedId() + 1;    // trimmed lines can be paged back in
+            }
+            if (following && !pageRequested) {
+                chatConversation.ensureIndexIsVisible(chatModel.getSize() - 1);
+            }
+        }
+
+        private void requestOlderPage() {
+            JScrollBar bar = chatScroll.getVerticalScrollBar();
+            if (pageRequested || oldestChatId <= 0 || bar.getValue() != bar.getMinimum()) {
+                return;
+            }
+            pageRequested = true;
+            heightBeforePage = bar.getMaximum();
+            DrawCommand request = new DrawCommand(DrawCommand.CommandType.CHATPAGE, userName);
+            request.setChatId(oldestChatId);
+            sendMessage(request);
+        }
+
+        // Keeps the messages the user was looking at in place instead of jumping to the new top
+        public void pageLoaded() {
+            if (!pageRequested) return;
+            chatModel.flush(false);
+            pageRequested = false;
+            SwingUtilities.invokeLater(() -> {
+                JScrollBar bar = chatScroll.getVerticalScrollBar();
+                bar.setValue(bar.getMaximum() - heightBeforePage);
             });
         }
+    }
 
-        public JTextPane getChatConversation() {
-            return chatConversation;
+    // Own messages right aligned, everyone else's left, to mimic user and group chats
+    private static class ChatLineRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+            ChatListModel.Line line = (ChatListModel.Line) value;
+            super.getListCellRendererComponent(list, line.text(), index, false, false);
+            setHorizontalAlignment(line.own() ? SwingConstants.RIGHT : SwingConstants.LEFT);
+            setToolTipText(line.text());
+            return this;
         }
     }
 
-    public void addMessage(JTextPane chat, String message, Boolean isRightAligned) {
-        // Using the JTextPane to allow left and right justified text to mimic user and group chats
-        StyledDocument doc = chat.getStyledDocument();
-        SimpleAttributeSet attrs = new SimpleAttributeSet();
+    public class PendingPanel extends JPanel {
+        // Join requests waiting for the manager, only shown while there are any. Several can be
+        // approved or denied at once, and nothing here blocks the board.
+        private final DefaultListModel<String> requests = new DefaultListModel<>();
+        private final JList<String> requestList = new JList<>(requests);
 
-        StyleConstants.setAlignment(attrs, isRightAligned ? StyleConstants.ALIGN_RIGHT : StyleConstants.ALIGN_LEFT);
-        doc.setParagraphAttributes(doc.getLength(), 1, attrs, false);
+        public PendingPanel() {
+            setLayout(new BorderLayout());
+            setBorder(BorderFactory.createTitledBorder("Join Requests"));
+            requestList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+            requestList.setVisibleRowCount(4);
+            add(new JScrollPane(requestList), BorderLayout.CENTER);
+
+            JPanel buttons = new JPanel(new GridLayout(2, 2, 4, 4));
+            JButton approve = new JButton("Approve");
+            JButton deny = new JButton("Deny");
+            JButton approveAll = new JButton("Approve All");
+            JButton denyAll = new JButton("Deny All");
+            buttons.add(approve);
+            buttons.add(deny);
+            buttons.add(approveAll);
+            buttons.add(denyAll);
+            add(buttons, BorderLayout.SOUTH);
+
+            approve.addActionListener(e -> answer(requestList.getSelectedValuesList(), "YES"));
+            deny.addActionListener(e -> answer(requestList.getSelectedValuesList(), "NO"));
+            approveAll.addActionListener(e -> answer(Collections.list(requests.elements()), "YES"));
+            denyAll.addActionListener(e -> answer(Collections.list(requests.elements()), "NO"));
+            setVisible(false);
+        }
 
-        try {
-            doc.insertString(doc.getLength(), message + "\n", null);
-        } catch (BadLocationException e) {
-            e.printStackTrace();
+        public void addRequest(String username) {
+            if (!requests.contains(username)) requests.addElement(username);
+            updateVisibility();
+        }
+
+        public void removeRequest(String username) {
+            requests.removeElement(username);
+            updateVisibility();
+        }
+
+        private void answer(List<String> usernames, String response) {
+            for (String u : usernames) {
+                sendMessage(new DrawCommand(DrawCommand.CommandType.AUTH, u, response));
+                requests.removeElement(u);
+            }
+            updateVisibility();
+        }
+
+        private void updateVisibility() {
+            if (isVisible() != !requests.isEmpty()) {
+                setVisible(!requests.isEmpty());
+                revalidate();
+            }
+        }
+
+        public void clearRequests() {
+            requests.clear();
+            updateVisibility();
         }
     }
 
@@ -616,6 +1023,7 @@ public class JoinWhiteBoard {
         private String managerUsername;
         private final JoinWhiteBoard jwb; // Reference to the main class
         private boolean isManager = false;
+        private final Set<String> names = new HashSet<>();     // the rows, for O(1) membership checks
 
         public UserPanel(JoinWhiteBoard jwb) {
             this.jwb = jwb;
@@ -674,14 +1082,8 @@ public class JoinWhiteBoard {
                                 JOptionPane.YES_NO_OPTION);
 
                         if (choice == JOptionPane.YES_OPTION) {
-                            try {
-                                // Send the KICK command
-                                jwb.sendMessage(new DrawCommand(DrawCommand.CommandType.KICK, userToKick));
-                            } catch (IOException ex) {
-                                JOptionPane.showMessageDialog(this, "Error kicking user: " + ex.getMessage(), "Kick Error", JOptionPane.ERROR_MESSAGE);
-                                // Set checkbox back to true if sending failed
-                                SwingUtilities.invokeLater(() -> tableModel.setValueAt(true, row, 1));
-                            }
+                            // Send the KICK command
+                            jwb.sendMessage(new DrawCommand(DrawCommand.CommandType.KICK, userToKick));
                         } else {
                             SwingUtilities.invokeLater(() -> tableModel.setValueAt(true, row, 1));
                         }
@@ -703,15 +1105,16 @@ public class JoinWhiteBoard {
         }
 
         public void addUser(String username) {
-            for (int i = 0; i < tableModel.getRowCount(); i++) {
-                if (tableModel.getValueAt(i, 0).equals(username)) {
-                    return;
-                }
+            if (!names.add(username)) {
+                return;
             }
             tableModel.addRow(new Object[]{username, true});
         }
 
         public void removeUser(String username) {
+            if (!names.remove(username)) {
+                return;
+            }
             for (int i = 0; i < tableModel.getRowCount(); i++) {
                 if (tableModel.getValueAt(i, 0).equals(username)) {
                     tableModel.removeRow(i);
@@ -741,78 +1144,314 @@ public class JoinWhiteBoard {
         }
 
         public void clearUsers() {
+            names.clear();
             tableModel.setRowCount(0);
         }
 
+        // Only used for the snapshot on join, everything after that arrives as single deltas
         public void setUsers(List<String> usernames) {
-            clearUsers();
+            names.clear();
+            tableModel.getDataVector().clear();
             for (String name : usernames) {
-                tableModel.addRow(new Object[]{name, true});
+                if (names.add(name)) tableModel.getDataVector().add(new Vector<Object>(List.of(name, true)));
             }
+            tableModel.fireTableDataChanged();  // one table update for the whole roster
         }
     }
 
-    public List<StrokeData> getStrokes() {
-        return strokes;
+    public DisplayList getDisplayList() {
+        return displayList;
     }
 
-    public void addStroke(StrokeData s) {
-        try {
-            sendMessage(new DrawCommand(s, userName));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    // A preview is written on the writer thread while the drawing goes on changing, so it sends a copy
+    public void addStroke(StrokeData s, long itemId) {
+        DrawCommand cmd = new DrawCommand(s.isIntermediate() ? s.copy() : s, userName);
+        cmd.setItemId(itemId);
+        sendItem(cmd);
+    }
+
+    // Sends one of our own items. Final ones also go on the display list, the server won't echo them back.
+    private void sendItem(DrawCommand cmd) {
+        if (!cmd.getIntermediate()) {
+            displayList.add(cmd);
+            index.insert(cmd);
+            if (isConnected) addPending(cmd);
+        }
+        sendMessage(cmd);
+    }
+
+    public void clearAll() {
+        boardUpload = null;     // stops a board that is still being opened
+        DrawCommand clear = new DrawCommand(DrawCommand.CommandType.CLEAR, userName);
+        if (isConnected) addPending(clear);
+        sendMessage(clear);
+        canvas.clearWhiteBoard(); // clear local immediately
+    }
+
+    // Items still on the board in the order they are painted, including the ones flattened into the base layer
+    private List<BoardItem> boardItems() {
+        List<BoardItem> items = new ArrayList<>();
+        if (archive != null) {
+            for (BoardItem item : archive.items()) items.add(item);
+        }
+        for (DrawCommand op : displayList) {
+            if (!op.isRemoved()) items.add(op.getItem());
+        }
+        return items;
+    }
+
+    // Saves the items still on the board, in the order they are painted
+    public void saveBoard(Path file) throws IOException {
+        List<BoardItem> items = boardItems();
+        BoardFile.write(file, items);
+        System.out.println("Saved " + items.size() + " items to " + file);
+    }
+
+    // Writes a PNG or SVG of the board in the background, from a copy of the items taken now
+    public void exportBoard(Path file, double scale) {
+        List<BoardItem> items = boardItems();
+        Thread export = new Thread(() -> {
+            try {
+                BoardExporter.export(items, file, scale);
+            } catch (IOException | RuntimeException e) {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null,
+                        "Could not export the board: " + e.getMessage(), "Export Failed", JOptionPane.ERROR_MESSAGE));
+            }
+        }, "board-export");
+        export.setDaemon(true);
+        export.start();
+    }
+
+    // Replaces the board with a saved one. The items are decoded from the mapped file as they are sent,
+    // and sent no faster than the server's rate limits allow, so a large board fills in over a few seconds.
+    public void openBoard(Path file) throws IOException {
+        BoardFile board = BoardFile.open(file);
+        clearAll();
+        Thread upload = new Thread(() -> {
+            try {
+                for (int i = 0; i < board.size() && boardUpload == Thread.currentThread() && isConnected; i++) {
+                    DrawCommand cmd = BoardFile.toCommand(board.get(i), userName);
+                    SwingUtilities.invokeAndWait(() -> {
+                        sendItem(cmd);
+                        canvas.drawItemOnBuffer(cmd.getItem());
+                        canvas.repaint();
+                    });
+                    Thread.sleep(cmd.getType() == DrawCommand.CommandType.TEXT ? TEXT_UPLOAD_DELAY_MS : ITEM_UPLOAD_DELAY_MS);
+                }
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null,
+                        "Could not open the board: " + e.getMessage(), "Open Failed", JOptionPane.ERROR_MESSAGE));
+            } catch (InterruptedException | InvocationTargetException e) {
+                System.err.println("Board upload stopped: " + e.getMessage());
+            }
+        }, "board-upload");
+        upload.setDaemon(true);
+        boardUpload = upload;
+        upload.start();
+    }
+
+    private void addPending(DrawCommand op) {
+        op.setOpId(++nextOpId);
+        pending.put(op.getOpId(), op);
+    }
+
+    // The server committed one of our ops as seq, or with no seq had already done so earlier. The op
+    // is already drawn, so it only needs the seq that later REMOVEs refer to it by.
+    private boolean settle(long opId, long seq) {
+        DrawCommand own = pending.remove(opId);
+        if (own == null) {
+            return false;
         }
+        if (seq > 0) {
+            own.setSeq(seq);
+            if (own.getItem() != null) itemsBySeq.put(seq, own);
+        }
+        return true;
     }
 
-    public void clearStrokes() {
-        if(strokes != null){
-            strokes.clear();
+    // The server refused one of our ops (e.g. rate limited), so it comes off our board again. A refused
+    // CLEAR is followed by the whole board.
+    private void dropRejected(long opId) {
+        DrawCommand own = pending.remove(opId);
+        if (own == null || own.getItem() == null || own.isRemoved()) {
+            return;
         }
+        own.setRemoved(true);
+        index.remove(own);
+        canvas.redrawRegion(own.getItem().getBounds());
+        canvas.repaint();
     }
 
-    public void clearShapes() {
-        if(shapeList != null){
-            shapeList.clear();
-            intermediateShapes.clear();
+    // Our pending items that come after our own newest pending CLEAR, i.e. the ones still on our board
+    private List<DrawCommand> pendingSinceClear() {
+        List<DrawCommand> items = new ArrayList<>();
+        for (DrawCommand own : pending.values()) {
+            if (own.getType() == DrawCommand.CommandType.CLEAR) items.clear();
+            else items.add(own);
         }
+        return items;
     }
 
-    public void setManagerUsername(String username) {
-        this.managerUsername = username;
+    // On a resumed session the server drops any of these it already had. A new session starts over, and
+    // what it never got is taken off our board so we show what everyone else sees.
+    private void resendPending(boolean resumed) {
+        if (resumed) {
+            for (DrawCommand own : pending.values()) sendMessage(own);
+            return;
+        }
+        for (DrawCommand own : pending.values()) {
+            if (own.getItem() != null && !own.isRemoved()) {
+                own.setRemoved(true);
+                index.remove(own);
+            }
+        }
+        if (!pending.isEmpty()) canvas.redrawBoard();
+        pending.clear();
+    }
+
+    private void addToDisplayList(DrawCommand op) {
+        displayList.add(op);
+        index.insert(op);
+        if (op.getSeq() > 0) itemsBySeq.put(op.getSeq(), op);
+    }
+
+    public SpatialIndex getIndex() {
+        return index;
+    }
+
+    // The server picks our newest item still on the board and answers with a REMOVE for everyone
+    public void undo() {
+        sendMessage(new DrawCommand(DrawCommand.CommandType.UNDO, userName));
     }
 
-    public void clearStrings() {
-        if(strings != null){
-            strings.clear();
+    public void redo() {
+        sendMessage(new DrawCommand(DrawCommand.CommandType.REDO, userName));
+    }
+
+    private record PreviewKey(String user, long itemId) {}
+
+    // True if the USER/BYE delta is the next one after the roster we hold. Deltas we already have are
+    // dropped, and after a gap the server is asked for a fresh snapshot instead.
+    private boolean applyRosterDelta(DrawCommand msg) {
+        if (rosterVersion < 0 || msg.getRosterVersion() <= rosterVersion) {
+            return false;
         }
+        if (msg.getRosterVersion() > rosterVersion + 1) {
+            sendMessage(new DrawCommand(DrawCommand.CommandType.USER, userName));
+            return false;
+        }
+        rosterVersion = msg.getRosterVersion();
+        return true;
     }
 
-    public List<Shapes> getShapeList() {
-        return shapeList;
+    // Where our cursor is on the canvas, null once it has left. It's only sent on the presence timer.
+    public void setCursorPosition(Point p) {
+        localCursor = p;
     }
 
-    public List<Shapes> getIntermediateShapes() {
-        return intermediateShapes;
+    // Sends the quantized cursor at a fixed rate, and only when it moved to another cell
+    private void sendCursor() {
+        short x = localCursor != null ? PresenceFrame.quantize(localCursor.x) : PresenceFrame.HIDDEN;
+        short y = localCursor != null ? PresenceFrame.quantize(localCursor.y) : PresenceFrame.HIDDEN;
+        if (x == sentCursorX && y == sentCursorY) {
+            return;
+        }
+        sendMessage(new DrawCommand(new PresenceFrame(new String[]{userName}, new short[]{x, y})));
+        sentCursorX = x;
+        sentCursorY = y;
     }
 
-    public void addShape(Shapes s) {
-        try {
-            sendMessage(new DrawCommand(s, userName));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    // The server echoes PING straight back, the round trip sets how often previews are sent
+    private void sendPing() {
+        long now = System.currentTimeMillis();
+        if (!throttle.pingDue(now)) {
+            return;
         }
+        throttle.pingSent(now);
+        sendMessage(new DrawCommand(DrawCommand.CommandType.PING));
     }
 
-    public List<DrawText> getStrings() {
-        return strings;
+    // True if the next preview of a drawing in progress may be sent now
+    public boolean previewDue() {
+        return throttle.ready(pending.size() + outbound.size());
     }
 
-    public void addString(DrawText s) {
+    public Map<String, Point> getRemoteCursors() {
+        return remoteCursors;
+    }
+
+    // Part of an eraser drag, the server works out what it hit and sends back the REMOVE and any pieces
+    public void sendErase(StrokeData path) {
+        sendMessage(new DrawCommand(DrawCommand.CommandType.ERASE, path, userName));
+    }
+
+    public void clearBoard() {
+        displayList.clear();
+        itemsBySeq.clear();
+        index.clear();
+        previews.clear();
+        baseLayer = null;
+        if (archive != null) archive.clear();
+    }
+
+    // The server flattened its oldest items into a base layer. Ours up to the same seq are dropped
+    // from memory too and kept in the archive instead, our own unacknowledged ones are never among them.
+    private void applyBase(BaseLayer base) {
+        DisplayList kept = new DisplayList();
+        List<BoardItem> flattened = new ArrayList<>();
+        for (DrawCommand op : displayList) {
+            if (op.getSeq() > 0 && op.getSeq() <= base.getSeq()) {
+                itemsBySeq.remove(op.getSeq());
+                if (!op.isRemoved()) flattened.add(op.getItem());
+            } else {
+                kept.add(op);
+            }
+        }
+        displayList = kept;
+        index.clear();
+        for (DrawCommand op : displayList) {
+            if (!op.isRemoved()) index.insert(op);
+        }
+        baseLayer = base.applyTo(baseLayer);
         try {
-            sendMessage(new DrawCommand(s, userName));
+            if (archive == null) archive = ItemArchive.createTemp("whiteboard-archive");
+            archive.append(flattened);
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            System.err.println("Could not archive flattened items: " + e.getMessage());
         }
+        canvas.redrawBoard();
+    }
+
+    // On the way out, the flattened items on disk are not needed any more
+    private void closeArchive() {
+        if (archive != null) archive.close();
+    }
+
+    public BaseLayer getBaseLayer() {
+        return baseLayer;
+    }
+
+    public void setManagerUsername(String username) {
+        this.managerUsername = username;
+    }
+
+    public Collection<BoardItem> getPreviews() {
+        return previews.values();
+    }
+
+    // Ids for our own drawings, every preview and the final item of one drawing carry the same one
+    public long nextItemId() {
+        return ++nextItemId;
+    }
+
+    public void addShape(Shapes s, long itemId) {
+        DrawCommand cmd = new DrawCommand(s.getIntermediate() ? s.copy() : s, userName);
+        cmd.setItemId(itemId);
+        sendItem(cmd);
+    }
+
+    public void addString(DrawText s) {
+        sendItem(new DrawCommand(s, userName));
     }
 
     public void clearChats() {
@@ -829,26 +1468,45 @@ public class JoinWhiteBoard {
         SwingUtilities.invokeLater(() -> {
             if (connected) {
                 connectionPanel.setConnect();
+                sentCursorX = sentCursorY = -2;
+                presenceTimer.start();
+                throttle.reset();
+                pingTimer.start();
+                heartbeatTimer.start();
             } else {
+                // The board is kept so a reconnect only has to fetch the ops after lastSeq, and our
+                // pending ops so they can be sent again if the session is resumed
+                presenceTimer.stop();
+                pingTimer.stop();
+                heartbeatTimer.stop();
+                remoteCursors.clear();
+                cursorNodes.clear();
+                canvas.repaint();
                 connectionPanel.setDisconnect();
                 userPanel.clearUsers();
-                if (canvas != null) {
-                    canvas.clearWhiteBoard();
-                }
-                chatPanel.getChatConversation().setText("");
+                pendingPanel.clearRequests();
+                chatPanel.clearMessages();
+                oldestChatId = -1;
+                rosterVersion = -1;
             }
         });
     }
 
     public static void main(String[] args) {
-        if (args.length < 2) {
-            System.err.println("Usage: java CreateWhiteBoard <ServerIPAddress> <port> <Username>");
+        if (args.length == 2 && args[0].equals("--play")) {
+            SwingUtilities.invokeLater(() -> SessionPlayer.open(Path.of(args[1])));
+            return;
+        }
+        if (args.length < 3) {
+            System.err.println("Usage: java CreateWhiteBoard <ServerIPAddress> <port> <Username> [joinToken]");
+            System.err.println("       java JoinWhiteBoard --play <recordingFile>");
             System.exit(1);
         }
 
         serverIP = args[0];
         serverPort = Integer.parseInt(args[1]);
         userName = args[2];
+        if (args.length > 3) joinToken = args[3];
 
         SwingUtilities.invokeLater(() -> {
             JFrame frame = new JFrame("Join White Board: " + userName);
@@ -856,6 +1514,7 @@ public class JoinWhiteBoard {
             frame.setSize(900, 700);
 
             JoinWhiteBoard joinWhiteBoard = new JoinWhiteBoard();
+            Runtime.getRuntime().addShutdownHook(new Thread(joinWhiteBoard::closeArchive, "archive-cleanup"));
             frame.add(canvas = new Canvas(joinWhiteBoard), BorderLayout.CENTER);
             frame.add(joinWhiteBoard.createToolboxPanel(), BorderLayout.EAST);
             frame.setVisible(true);
@@ -8,13 +8,10 @@ public class Lines extends Shapes {
     }
 
     @Override
-    public void draw(Graphics2D g) {
-        g.setColor(getColor());
-        g.setStroke(new BasicStroke(getStrokeWidth()));
-        g.draw(new Line2D.Double(   (int)(getStartPoint().getX()),
+    public Shape getOutline() {
+        return new Line2D.Double(   (int)(getStartPoint().getX()),
                                     (int)(getStartPoint().getY()),
                                     (int)(getEndPoint().getX()),
-                                    (int)(getEndPoint().getY()))
-        );
+                                    (int)(getEndPoint().getY()));
     }
 }
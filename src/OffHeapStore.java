@@ -0,0 +1,62 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class OffHeapStore {
+    // Finalized board ops in their wire form, serialized once when committed and kept in direct memory
+    // outside the Java heap. Broadcasts and joins copy these bytes to the client streams as they are.
+    // Ops are bump-allocated into shared chunks; each op holds a slice of its chunk, so a chunk's memory
+    // is given back once every op in it has been dropped from the board, with nothing to free by hand.
+    private static final int CHUNK_BYTES = 256 * 1024;
+    private static final int STREAM_HEADER_BYTES = 4;
+
+    private ByteBuffer chunk;
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    // The bytes sendCommand would write for the op: a reset, so they don't depend on anything sent
+    // before them, then the object. A fresh stream's own header is left out.
+    public static byte[] encode(DrawCommand cmd) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.reset();
+            out.writeObject(cmd);
+            out.flush();
+            byte[] all = bytes.toByteArray();
+            byte[] wire = new byte[all.length - STREAM_HEADER_BYTES];
+            System.arraycopy(all, STREAM_HEADER_BYTES, wire, 0, wire.length);
+            return wire;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The op's stored bytes, or a one-off encoding on the heap for messages that aren't kept
+    public static ByteBuffer wireOf(DrawCommand cmd) {
+        return cmd.getWire() != null ? cmd.getWire() : ByteBuffer.wrap(encode(cmd)).asReadOnlyBuffer();
+    }
+
+    public synchronized ByteBuffer store(DrawCommand cmd) {
+        byte[] wire = encode(cmd);
+        storedBytes.addAndGet(wire.length);
+        if (wire.length > CHUNK_BYTES / 4) {
+            // Big strokes get a buffer of their own rather than wasting the end of a chunk
+            return ByteBuffer.allocateDirect(wire.length).put(wire).flip().asReadOnlyBuffer();
+        }
+        if (chunk == null || chunk.remaining() < wire.length) {
+            chunk = ByteBuffer.allocateDirect(CHUNK_BYTES);
+        }
+        ByteBuffer slice = chunk.slice(chunk.position(), wire.length);
+        slice.put(wire).flip();
+        chunk.position(chunk.position() + wire.length);
+        return slice.asReadOnlyBuffer();
+    }
+
+    // Everything stored so far, including ops that have since been dropped
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+}
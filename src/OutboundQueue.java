@@ -0,0 +1,102 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+public class OutboundQueue {
+    // Messages waiting for the client's writer thread, so the EDT never blocks on the socket. While the
+    // writer is behind, a newer preview of a drawing takes the place of the one still queued for it, and
+    // a newer cursor frame that of the queued one: only the latest of either is worth sending. Everything
+    // else, final items included, is sent exactly and in order. Once MAX_QUEUED messages are waiting,
+    // new previews are dropped and the oldest queued preview makes room for anything else.
+    private static final int MAX_QUEUED = 2000;
+
+    private record Key(DrawCommand.CommandType type, long itemId) {}
+
+    private static class Entry {
+        private DrawCommand cmd;            // null once taken or dropped
+        private final Key key;              // null for messages that are never superseded
+
+        private Entry(DrawCommand cmd, Key key) {
+            this.cmd = cmd;
+            this.key = key;
+        }
+    }
+
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private final Map<Key, Entry> latest = new HashMap<>();         // queued previews and cursor frames
+    private final ArrayDeque<Entry> droppable = new ArrayDeque<>(); // the same, oldest first
+    private int size = 0;
+
+    // False if the queue is full of messages that can't be dropped, the connection has stopped moving
+    public synchronized boolean offer(DrawCommand cmd) {
+        Key key = keyOf(cmd);
+        if (key != null) {
+            Entry queued = latest.get(key);
+            if (queued != null) {
+                queued.cmd = cmd;
+                return true;
+            }
+            if (size >= MAX_QUEUED) {
+                return true;
+            }
+        } else if (size >= MAX_QUEUED && !dropOldestPreview()) {
+            return false;
+        }
+        Entry entry = new Entry(cmd, key);
+        queue.add(entry);
+        size++;
+        if (key != null) {
+            latest.put(key, entry);
+            droppable.add(entry);
+        }
+        notifyAll();
+        return true;
+    }
+
+    private static Key keyOf(DrawCommand cmd) {
+        return switch (cmd.getType()) {
+            case SHAPE, STROKE -> cmd.getIntermediate() ? new Key(cmd.getType(), cmd.getItemId()) : null;
+            case PRESENCE -> new Key(cmd.getType(), 0);
+            default -> null;
+        };
+    }
+
+    private boolean dropOldestPreview() {
+        Entry oldest = droppable.poll();
+        if (oldest == null) {
+            return false;
+        }
+        latest.remove(oldest.key, oldest);
+        oldest.cmd = null;
+        size--;
+        return true;
+    }
+
+    // A writer that was interrupted stops here even with messages left, they belong to its dead connection
+    public synchronized DrawCommand take() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        while (true) {
+            while (queue.isEmpty()) {
+                wait();
+            }
+            Entry entry = queue.poll();
+            if (entry.cmd == null) {
+                continue;   // dropped to make room
+            }
+            if (entry.key != null) {
+                latest.remove(entry.key, entry);
+                droppable.remove(entry);    // the head, both are in queue order
+            }
+            DrawCommand cmd = entry.cmd;
+            entry.cmd = null;
+            size--;
+            return cmd;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
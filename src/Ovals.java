@@ -8,9 +8,7 @@ public class Ovals extends ClosedShapes {
     }
 
     @Override
-    public void draw(Graphics2D g) {
-        g.setColor(getColor());
-        g.setStroke(new BasicStroke(getStrokeWidth()));
-        g.draw(new Ellipse2D.Double(getTopLeftX(), getTopLeftY(), getWidth(), getHeight()));
+    public Shape getOutline() {
+        return new Ellipse2D.Double(getTopLeftX(), getTopLeftY(), getWidth(), getHeight());
     }
 }
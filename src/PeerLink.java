@@ -0,0 +1,100 @@
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayDeque;
+
+public class PeerLink implements Runnable {
+    // Envelopes are queued and written on the link's own writer thread, so a node relaying under its
+    // board lock never blocks on the other node's socket. Two nodes each waiting on the other's full
+    // buffer while holding their lock would otherwise deadlock. A peer that far behind is dropped, and
+    // a secondary resyncs from the snapshot it gets when it reconnects.
+    private static final int MAX_QUEUED = 100_000;
+
+    private final Socket socket;
+    private final ClusterNode cluster;
+    private final ObjectOutputStream out;
+    private final ObjectInputStream in;
+    private volatile String remoteNode;
+    private final ArrayDeque<RelayEnvelope> outgoing = new ArrayDeque<>();
+    private final Thread writer;
+
+    public PeerLink(Socket socket, ClusterNode cluster) throws IOException {
+        this.socket = socket;
+        this.cluster = cluster;
+        this.out = new ObjectOutputStream(socket.getOutputStream());
+        this.out.flush();
+        this.in = new ObjectInputStream(socket.getInputStream());
+        this.writer = new Thread(this::writeQueued, "cluster-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            RelayEnvelope env;
+            while ((env = (RelayEnvelope) in.readObject()) != null) {
+                if (env.getKind() == RelayEnvelope.Kind.HELLO) {
+                    remoteNode = env.getOriginNode();
+                }
+                cluster.onEnvelope(this, env);
+            }
+        } catch (EOFException eof) {
+            System.out.println("[Cluster] Link to " + remoteNode + " closed.");
+        } catch (Exception e) {
+            System.err.println("[Cluster] Link to " + remoteNode + " failed: " + e.getMessage());
+        } finally {
+            cluster.removeLink(this);
+            close();
+        }
+    }
+
+    public void send(RelayEnvelope env) {
+        synchronized (outgoing) {
+            if (outgoing.size() < MAX_QUEUED) {
+                outgoing.add(env);
+                outgoing.notifyAll();
+                return;
+            }
+            outgoing.clear();
+        }
+        System.err.println("[Cluster] " + remoteNode + " is " + MAX_QUEUED + " messages behind, dropping the link.");
+        close();
+    }
+
+    private void writeQueued() {
+        try {
+            while (true) {
+                RelayEnvelope env;
+                synchronized (outgoing) {
+                    while (outgoing.isEmpty()) {
+                        outgoing.wait();
+                    }
+                    env = outgoing.poll();
+                }
+                out.reset();
+                out.writeObject(env);
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            // the link is closed
+        } catch (IOException e) {
+            System.err.println("[Cluster] Error sending to " + remoteNode + ": " + e.getMessage());
+            close();    // the reader sees it and the link is removed
+        }
+    }
+
+    public String getRemoteNode() {
+        return remoteNode;
+    }
+
+    public void close() {
+        writer.interrupt();
+        try {
+            if (!socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("[Cluster] Error closing link to " + remoteNode + ": " + e.getMessage());
+        }
+    }
+}
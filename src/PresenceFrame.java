@@ -0,0 +1,70 @@
+import java.io.Serial;
+import java.io.Serializable;
+
+public class PresenceFrame implements Serializable {
+    // Cursor positions for one presence tick. Coordinates are quantized to QUANTUM pixels and packed
+    // two shorts per user, HIDDEN means the user's cursor has left the canvas (or the user left).
+    // A keyframe holds every visible cursor of the node that sent it, any other cursor from that node
+    // is gone.
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public static final int QUANTUM = 4;
+    public static final short HIDDEN = -1;
+
+    private final String[] users;
+    private final short[] xy;
+    private final String node;          // server node the cursors are connected to, null from a client
+    private final boolean keyframe;
+
+    public PresenceFrame(String[] users, short[] xy) {
+        this(users, xy, null, false);
+    }
+
+    public PresenceFrame(String[] users, short[] xy, String node, boolean keyframe) {
+        this.users = users;
+        this.xy = xy;
+        this.node = node;
+        this.keyframe = keyframe;
+    }
+
+    public static short quantize(int coord) {
+        return (short) Math.max(0, Math.min(Short.MAX_VALUE, coord / QUANTUM));
+    }
+
+    public int size() {
+        return users.length;
+    }
+
+    public String getUser(int i) {
+        return users[i];
+    }
+
+    public boolean isHidden(int i) {
+        return xy[2 * i] == HIDDEN;
+    }
+
+    public int getX(int i) {
+        return xy[2 * i] * QUANTUM + QUANTUM / 2;
+    }
+
+    public int getY(int i) {
+        return xy[2 * i + 1] * QUANTUM + QUANTUM / 2;
+    }
+
+    public short getQuantizedX(int i) {
+        return xy[2 * i];
+    }
+
+    public short getQuantizedY(int i) {
+        return xy[2 * i + 1];
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public boolean isKeyframe() {
+        return keyframe;
+    }
+}
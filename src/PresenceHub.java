@@ -0,0 +1,98 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class PresenceHub {
+    // Cursor positions, kept apart from board traffic: never logged, never sequenced, never queued.
+    // Updates are coalesced to the latest position per user and sent to everyone in one frame per tick.
+    // A client still busy with the previous frame simply misses this one. Once a second a keyframe of
+    // every visible cursor goes out instead, even when there are none, and clients replace this node's
+    // cursors with it, so a missed move or hide is corrected shortly after.
+    private static final long TICK_MS = 66;
+    private static final int KEYFRAME_TICKS = 15;
+
+    private final CreateWhiteBoard server;
+    private final Map<String, short[]> cursors = new HashMap<>();         // visible local cursors
+    private final Map<String, short[]> changed = new LinkedHashMap<>();   // since the last tick
+    private int ticksSinceKeyframe = 0;
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "presence-ticker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public PresenceHub(CreateWhiteBoard server) {
+        this.server = server;
+    }
+
+    public void start() {
+        ticker.scheduleAtFixedRate(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void update(String user, short x, short y) {
+        short[] xy = {x, y};
+        if (x == PresenceFrame.HIDDEN) {
+            if (cursors.remove(user) == null) return;
+        } else {
+            cursors.put(user, xy);
+        }
+        changed.put(user, xy);
+    }
+
+    public void hide(String user) {
+        update(user, PresenceFrame.HIDDEN, PresenceFrame.HIDDEN);
+    }
+
+    private void tick() {
+        PresenceFrame frame;
+        synchronized (this) {
+            boolean keyframe = ++ticksSinceKeyframe >= KEYFRAME_TICKS;
+            if (!keyframe && changed.isEmpty()) {
+                return;
+            }
+            if (keyframe) {
+                ticksSinceKeyframe = 0;
+            }
+            frame = pack(keyframe ? cursors : changed, server.getNodeId(), keyframe);
+            changed.clear();
+        }
+        DrawCommand cmd = new DrawCommand(frame);
+        send(cmd);
+        server.relayPresence(cmd);
+    }
+
+    // Also used for frames relayed from other cluster nodes
+    public void send(DrawCommand cmd) {
+        List<ClientHandler> targets;
+        synchronized (server.getClients()) {
+            targets = new ArrayList<>(server.getClients());
+        }
+        ByteBuffer wire = OffHeapStore.wireOf(cmd);
+        for (ClientHandler c : targets) {
+            c.offerPresence(cmd, wire);
+        }
+    }
+
+    private static PresenceFrame pack(Map<String, short[]> entries, String node, boolean keyframe) {
+        String[] users = new String[entries.size()];
+        short[] xy = new short[entries.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, short[]> e : entries.entrySet()) {
+            users[i] = e.getKey();
+            xy[2 * i] = e.getValue()[0];
+            xy[2 * i + 1] = e.getValue()[1];
+            i++;
+        }
+        return new PresenceFrame(users, xy, node, keyframe);
+    }
+
+    public void stop() {
+        ticker.shutdownNow();
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.EnumMap;
+import java.util.Map;
+
+public class RateLimiter {
+    // Per-connection limits on how often each kind of message may be sent. Every rejected message also
+    // takes a token from an offence bucket, and a client that empties that one is flooding on purpose.
+    private static final Map<DrawCommand.CommandType, double[]> LIMITS = new EnumMap<>(DrawCommand.CommandType.class);
+    static {
+        // {messages per second, burst}
+        LIMITS.put(DrawCommand.CommandType.STROKE, new double[]{120, 240});
+        LIMITS.put(DrawCommand.CommandType.SHAPE, new double[]{120, 240});
+        // A client sends eraser chunks as often as previews, up to one per SendThrottle.MIN_INTERVAL_MS
+        LIMITS.put(DrawCommand.CommandType.ERASE, new double[]{120, 240});
+        LIMITS.put(DrawCommand.CommandType.TEXT, new double[]{10, 20});
+        LIMITS.put(DrawCommand.CommandType.CHAT, new double[]{5, 10});
+        LIMITS.put(DrawCommand.CommandType.CLEAR, new double[]{1, 3});
+        LIMITS.put(DrawCommand.CommandType.UNDO, new double[]{20, 40});
+        LIMITS.put(DrawCommand.CommandType.REDO, new double[]{20, 40});
+        LIMITS.put(DrawCommand.CommandType.PRESENCE, new double[]{30, 60});
+        LIMITS.put(DrawCommand.CommandType.CHATPAGE, new double[]{5, 10});
+        LIMITS.put(DrawCommand.CommandType.USER, new double[]{2, 5});
+        LIMITS.put(DrawCommand.CommandType.KICK, new double[]{10, 20});
+        LIMITS.put(DrawCommand.CommandType.AUTH, new double[]{100, 200});
+        LIMITS.put(DrawCommand.CommandType.ACTIVE, new double[]{5, 10});
+        LIMITS.put(DrawCommand.CommandType.PING, new double[]{2, 5});
+    }
+    private static final double OFFENCE_RATE = 5;
+    private static final double OFFENCE_BURST = 100;
+
+    private final Map<DrawCommand.CommandType, TokenBucket> buckets = new EnumMap<>(DrawCommand.CommandType.class);
+    private final TokenBucket offences = new TokenBucket(OFFENCE_RATE, OFFENCE_BURST);
+    private boolean offender = false;
+
+    public RateLimiter() {
+        for (Map.Entry<DrawCommand.CommandType, double[]> e : LIMITS.entrySet()) {
+            buckets.put(e.getKey(), new TokenBucket(e.getValue()[0], e.getValue()[1]));
+        }
+    }
+
+    public boolean allow(DrawCommand.CommandType type) {
+        TokenBucket bucket = buckets.get(type);
+        if (bucket == null || bucket.tryTake()) {
+            return true;
+        }
+        if (!offences.tryTake()) {
+            offender = true;
+        }
+        return false;
+    }
+
+    public boolean isRepeatOffender() {
+        return offender;
+    }
+}
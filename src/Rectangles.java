@@ -8,9 +8,7 @@ public class Rectangles extends ClosedShapes {
     }
 
     @Override
-    public void draw(Graphics2D g) {
-        g.setColor(getColor());
-        g.setStroke(new BasicStroke(getStrokeWidth()));
-        g.draw(new Rectangle2D.Double(getTopLeftX(), getTopLeftY(), getWidth(), getHeight()));
+    public Shape getOutline() {
+        return new Rectangle2D.Double(getTopLeftX(), getTopLeftY(), getWidth(), getHeight());
     }
 }
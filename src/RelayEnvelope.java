@@ -0,0 +1,65 @@
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+
+public class RelayEnvelope implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    // HELLO     - first message on a new node-to-node link, carries the sender's node id
+    // FORWARD   - secondary -> primary, an op that has to be ordered before anyone applies it
+    // DELIVER   - primary -> secondaries, an ordered op to apply and broadcast locally
+    // PREVIEW   - intermediate shapes and strokes, relayed but never ordered or stored
+    // ROUTE     - a message for one user (AUTH, KICK) that may be connected to another node
+    // SNAPSHOT  - primary -> new secondary, the board state at the moment the link came up
+    public enum Kind { HELLO, FORWARD, DELIVER, PREVIEW, ROUTE, SNAPSHOT }
+
+    private final Kind kind;
+    private final String originNode;
+    private final long originHandler;
+    private final DrawCommand command;
+    private final ArrayList<DrawCommand> snapshot;
+
+    public RelayEnvelope(Kind kind, String originNode, long originHandler, DrawCommand command) {
+        this.kind = kind;
+        this.originNode = originNode;
+        this.originHandler = originHandler;
+        this.command = command;
+        this.snapshot = null;
+    }
+
+    /** Constructor for SNAPSHOT */
+    public RelayEnvelope(String originNode, ArrayList<DrawCommand> snapshot) {
+        this.kind = Kind.SNAPSHOT;
+        this.originNode = originNode;
+        this.originHandler = -1;
+        this.command = null;
+        this.snapshot = snapshot;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getOriginNode() {
+        return originNode;
+    }
+
+    public long getOriginHandler() {
+        return originHandler;
+    }
+
+    public DrawCommand getCommand() {
+        return command;
+    }
+
+    public ArrayList<DrawCommand> getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return "[RelayEnvelope: kind=" + kind + ", from=" + originNode + ", cmd=" + command + "]";
+    }
+}
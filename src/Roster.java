@@ -0,0 +1,50 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+public class Roster {
+    // Users on the board, in the order they joined. Every join or leave bumps the version, and clients
+    // apply the USER/BYE deltas in version order on top of the one snapshot they get when they join.
+    private final Set<String> users = new LinkedHashSet<>();
+    private long version = 0;
+
+    // Returns the version after the join. Deltas relayed from the primary node carry the version it gave them.
+    public synchronized long join(String user, long atVersion) {
+        if (users.add(user)) {
+            version = atVersion > 0 ? atVersion : version + 1;
+        }
+        return version;
+    }
+
+    public synchronized long leave(String user, long atVersion) {
+        if (users.remove(user)) {
+            version = atVersion > 0 ? atVersion : version + 1;
+        }
+        return version;
+    }
+
+    public synchronized boolean contains(String user) {
+        return users.contains(user);
+    }
+
+    public synchronized int size() {
+        return users.size();
+    }
+
+    public synchronized DrawCommand snapshot() {
+        DrawCommand cmd = new DrawCommand(DrawCommand.CommandType.USER, null, new ArrayList<>(users));
+        cmd.setRosterVersion(version);
+        return cmd;
+    }
+
+    // Replaces the roster with a snapshot from another node
+    public synchronized void reset(Iterable<String> members, long atVersion) {
+        users.clear();
+        for (String u : members) users.add(u);
+        version = atVersion;
+    }
+
+    public synchronized void clear() {
+        users.clear();
+    }
+}
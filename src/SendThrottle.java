@@ -0,0 +1,67 @@
+public class SendThrottle {
+    // Decides how often previews of a drawing in progress are sent. The interval follows the round trip
+    // to the server, measured with PING, and grows while our own sends are backing up: a write that
+    // blocks means the socket buffer is full, and many ops waiting for their ACK mean the server is
+    // behind. On a LAN previews go out at up to 60 a second, on a slow link they are coalesced into
+    // fewer, larger ones. Final items never go through the throttle.
+    private static final long MIN_INTERVAL_MS = 16;
+    private static final long MAX_INTERVAL_MS = 250;
+    private static final long PING_TIMEOUT_MS = 10_000;
+    private static final long SLOW_WRITE_MS = 10;
+    private static final int BACKLOG_LIMIT = 8;
+    private static final int BACKOFF = 4;
+
+    private double smoothedRtt = 0;     // 0 until the first PING comes back
+    private long pingSentAt = 0;        // 0 when no PING is outstanding
+    private long lastWriteMillis = 0;
+    private long lastSent = 0;
+
+    // True if a PING should go out, only one is outstanding at a time unless it was lost
+    public synchronized boolean pingDue(long now) {
+        return pingSentAt == 0 || now - pingSentAt > PING_TIMEOUT_MS;
+    }
+
+    public synchronized void pingSent(long now) {
+        pingSentAt = now;
+    }
+
+    // Smoothed the way TCP does, so a single slow round trip doesn't swing the rate
+    public synchronized void pongReceived(long now) {
+        if (pingSentAt == 0) return;
+        long sample = now - pingSentAt;
+        smoothedRtt = smoothedRtt == 0 ? sample : smoothedRtt * 0.875 + sample * 0.125;
+        pingSentAt = 0;
+    }
+
+    // How long the last message took to write
+    public synchronized void wrote(long millis) {
+        lastWriteMillis = millis;
+    }
+
+    // A new connection starts from scratch, the old one's PING will never be answered
+    public synchronized void reset() {
+        smoothedRtt = 0;
+        pingSentAt = 0;
+        lastWriteMillis = 0;
+    }
+
+    public synchronized long getInterval(long now, int backlog) {
+        // A PING that has been out longer than the usual round trip is the better estimate of it
+        double rtt = pingSentAt == 0 ? smoothedRtt : Math.max(smoothedRtt, now - pingSentAt);
+        long interval = Math.max(MIN_INTERVAL_MS, Math.round(rtt / 2));
+        if (backlog > BACKLOG_LIMIT || lastWriteMillis >= SLOW_WRITE_MS) {
+            interval *= BACKOFF;
+        }
+        return Math.min(MAX_INTERVAL_MS, interval);
+    }
+
+    // True if the next update may go out now, and counts it as sent
+    public synchronized boolean ready(int backlog) {
+        long now = System.currentTimeMillis();
+        if (now - lastSent < getInterval(now, backlog)) {
+            return false;
+        }
+        lastSent = now;
+        return true;
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ServerMetrics {
+    // Admission control and rate limiting counters, logged once a minute when anything has happened
+    private static final long REPORT_INTERVAL_S = 60;
+
+    private final Map<DrawCommand.CommandType, LongAdder> rateLimited = new EnumMap<>(DrawCommand.CommandType.class);
+    private final LongAdder oversized = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder rejectedPending = new LongAdder();
+    private final LongAdder offendersDisconnected = new LongAdder();
+    private final LongAdder idleReaped = new LongAdder();
+    private final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "metrics-reporter");
+        t.setDaemon(true);
+        return t;
+    });
+    private String lastReport = "";
+
+    public ServerMetrics() {
+        for (DrawCommand.CommandType type : DrawCommand.CommandType.values()) {
+            rateLimited.put(type, new LongAdder());
+        }
+    }
+
+    public void start() {
+        reporter.scheduleAtFixedRate(this::report, REPORT_INTERVAL_S, REPORT_INTERVAL_S, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        reporter.shutdownNow();
+    }
+
+    public void rateLimited(DrawCommand.CommandType type) {
+        rateLimited.get(type).increment();
+    }
+
+    public void oversized() {
+        oversized.increment();
+    }
+
+    public void rejectedConnection() {
+        rejectedConnections.increment();
+    }
+
+    public void rejectedPending() {
+        rejectedPending.increment();
+    }
+
+    public void offenderDisconnected() {
+        offendersDisconnected.increment();
+    }
+
+    public void idleReaped() {
+        idleReaped.increment();
+    }
+
+    // Totals since the server started
+    public String summary() {
+        StringBuilder limited = new StringBuilder();
+        for (Map.Entry<DrawCommand.CommandType, LongAdder> e : rateLimited.entrySet()) {
+            long n = e.getValue().sum();
+            if (n > 0) limited.append(limited.isEmpty() ? "" : ", ").append(e.getKey()).append('=').append(n);
+        }
+        return "rate limited {" + limited + "}, oversized " + oversized.sum()
+                + ", connections rejected " + rejectedConnections.sum()
+                + ", join requests rejected " + rejectedPending.sum()
+                + ", offenders disconnected " + offendersDisconnected.sum()
+                + ", idle connections closed " + idleReaped.sum();
+    }
+
+    private void report() {
+        String report = summary();
+        if (!report.equals(lastReport)) {
+            System.out.println("[Server] Metrics: " + report);
+            lastReport = report;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SessionPlayer extends JPanel {
+    // Time-lapse playback of a session recording at 1x to 100x. While the recording loads it is played
+    // through once and the board is kept as a raster keyframe at regular intervals, so a seek starts from
+    // the nearest keyframe before it instead of rasterizing the whole session again. Only the items are
+    // rebuilt from the start, which needs no drawing and is quick even for long sessions.
+    // e.g. java JoinWhiteBoard --play session.wbr
+    private static final int TICK_MS = 33;
+    private static final long MIN_KEYFRAME_INTERVAL_MS = 30_000;
+    private static final long KEYFRAME_BUDGET_BYTES = 256L << 20;
+    private static final int MAX_RASTER_SIZE = 4096;
+    private static final String[] SPEEDS = {"1x", "2x", "5x", "10x", "25x", "50x", "100x"};
+
+    private record Keyframe(long millis, int next, BufferedImage raster) {}
+
+    private final List<SessionRecorder.Event> events;
+    private final long duration;
+    private final Rectangle area;           // board area the raster covers
+    private final double scale;             // below 1 when the board is larger than MAX_RASTER_SIZE
+    private final List<Keyframe> keyframes = new ArrayList<>();
+
+    // The board at the playback position
+    private BufferedImage raster;
+    private final Map<Long, DrawCommand> live = new HashMap<>();
+    private final SpatialIndex index = new SpatialIndex();
+    private int next = 0;                   // first event not applied yet
+    private long position = 0;              // ms into the session
+
+    private final Timer timer = new Timer(TICK_MS, e -> tick());
+    private long lastTick;
+    private int speed = 1;
+    private final JSlider slider;
+    private final JLabel timeLabel = new JLabel();
+    private boolean updatingSlider = false;
+
+    public SessionPlayer(List<SessionRecorder.Event> events) {
+        this.events = events;
+        this.duration = events.isEmpty() ? 0 : events.getLast().millis();
+        Rectangle covered = new Rectangle(0, 0, 1, 1);
+        for (SessionRecorder.Event e : events) {
+            if (e.op().getItem() != null) covered.add(e.op().getItem().getBounds());
+        }
+        this.area = covered;
+        this.scale = Math.min(1, (double) MAX_RASTER_SIZE / Math.max(area.width, area.height));
+        this.slider = new JSlider(0, (int) Math.min(Integer.MAX_VALUE, duration), 0);
+        setBackground(Color.WHITE);
+        setPreferredSize(new Dimension((int) Math.ceil(area.width * scale), (int) Math.ceil(area.height * scale)));
+
+        raster = blankRaster();
+        buildKeyframes();
+        seek(0);
+    }
+
+    public static void open(Path file) {
+        List<SessionRecorder.Event> events;
+        try {
+            events = SessionRecorder.read(file);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Could not open the recording: " + e.getMessage(),
+                    "Playback Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        SessionPlayer player = new SessionPlayer(events);
+        JFrame frame = new JFrame("Playback: " + file.getFileName());
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        frame.add(new JScrollPane(player), BorderLayout.CENTER);
+        frame.add(player.createControls(), BorderLayout.SOUTH);
+        frame.setSize(900, 700);
+        frame.setVisible(true);
+    }
+
+    private JPanel createControls() {
+        JPanel controls = new JPanel(new BorderLayout(8, 0));
+        JButton play = new JButton("Play");
+        JComboBox<String> speeds = new JComboBox<>(SPEEDS);
+        JPanel buttons = new JPanel();
+        buttons.add(play);
+        buttons.add(speeds);
+        buttons.add(timeLabel);
+        controls.add(buttons, BorderLayout.WEST);
+        controls.add(slider, BorderLayout.CENTER);
+
+        play.addActionListener(e -> {
+            if (timer.isRunning()) {
+                timer.stop();
+                play.setText("Play");
+            } else {
+                if (position >= duration) seek(0);
+                lastTick = System.currentTimeMillis();
+                timer.start();
+                play.setText("Pause");
+            }
+        });
+        speeds.addActionListener(e -> speed = Integer.parseInt(((String) speeds.getSelectedItem()).replace("x", "")));
+        slider.addChangeListener(e -> {
+            if (!updatingSlider) seek(slider.getValue());
+        });
+        timer.addActionListener(e -> {
+            if (!timer.isRunning()) play.setText("Play");
+        });
+        return controls;
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        long target = Math.min(duration, position + (now - lastTick) * speed);
+        lastTick = now;
+        advanceTo(target);
+        if (position >= duration) timer.stop();
+    }
+
+    // Played through once up front, keeping a copy of the raster every so often. The interval grows
+    // with the session so the keyframes of a long one still fit the memory budget.
+    private void buildKeyframes() {
+        long rasterBytes = (long) raster.getWidth() * raster.getHeight() * 4;
+        long maxKeyframes = Math.max(2, KEYFRAME_BUDGET_BYTES / rasterBytes);
+        long interval = Math.max(MIN_KEYFRAME_INTERVAL_MS, duration / maxKeyframes + 1);
+
+        keyframes.add(new Keyframe(0, 0, copyOf(raster)));
+        long nextKeyframe = interval;
+        for (int i = 0; i < events.size(); i++) {
+            SessionRecorder.Event e = events.get(i);
+            if (e.millis() >= nextKeyframe) {
+                // Taken before the first event at or past the mark, so it holds everything earlier
+                keyframes.add(new Keyframe(e.millis() - 1, i, copyOf(raster)));
+                nextKeyframe = e.millis() + interval;
+            }
+            apply(e.op(), true);
+        }
+    }
+
+    public void seek(long millis) {
+        Keyframe from = keyframes.getFirst();
+        for (Keyframe k : keyframes) {
+            if (k.millis() <= millis) from = k;
+        }
+        raster = copyOf(from.raster());
+        live.clear();
+        index.clear();
+        for (int i = 0; i < from.next(); i++) {
+            apply(events.get(i).op(), false);
+        }
+        next = from.next();
+        position = from.millis();
+        advanceTo(millis);
+    }
+
+    private void advanceTo(long millis) {
+        while (next < events.size() && events.get(next).millis() <= millis) {
+            apply(events.get(next++).op(), true);
+        }
+        position = millis;
+        updatingSlider = true;
+        slider.setValue((int) Math.min(Integer.MAX_VALUE, millis));
+        updatingSlider = false;
+        timeLabel.setText(formatTime(millis) + " / " + formatTime(duration));
+        repaint();
+    }
+
+    // Keeps the items in step, and the raster too when draw is set
+    private void apply(DrawCommand op, boolean draw) {
+        switch (op.getType()) {
+            case CLEAR -> {
+                live.clear();
+                index.clear();
+                if (draw) raster = blankRaster();
+            }
+            case REMOVE -> {
+                for (long target : op.getTargets()) {
+                    DrawCommand removed = live.remove(target);
+                    if (removed == null) continue;
+                    index.remove(removed);
+                    if (draw) redrawRegion(removed.getItem().getBounds());
+                }
+            }
+            default -> {
+                live.put(op.getSeq(), op);
+                index.insert(op);
+                if (draw) {
+                    Graphics2D g = boardGraphics();
+                    op.getItem().draw(g);
+                    g.dispose();
+                }
+            }
+        }
+    }
+
+    private void redrawRegion(Rectangle region) {
+        Graphics2D g = boardGraphics();
+        g.clip(region);
+        g.setColor(Color.WHITE);
+        g.fill(region);
+        for (DrawCommand op : index.query(region)) {
+            op.getItem().draw(g);
+        }
+        g.dispose();
+    }
+
+    private Graphics2D boardGraphics() {
+        Graphics2D g = raster.createGraphics();
+        g.scale(scale, scale);
+        g.translate(-area.x, -area.y);
+        return g;
+    }
+
+    private BufferedImage blankRaster() {
+        BufferedImage image = new BufferedImage(getPreferredSize().width, getPreferredSize().height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.dispose();
+        return image;
+    }
+
+    private static BufferedImage copyOf(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        image.copyData(copy.getRaster());
+        return copy;
+    }
+
+    private static String formatTime(long millis) {
+        long seconds = millis / 1000;
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        g.drawImage(raster, 0, 0, null);
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class SessionRecorder {
+    // Records every committed board op with the time it was committed, for time-lapse playback.
+    // The server hands ops over while holding the board lock, they are encoded and written on the
+    // recorder's own thread so the disk never holds up a commit. Layout, all big-endian:
+    //   header   magic, format version, wall clock time the recording started
+    //   records  ms since the previous record and seq since the previous record (varints), the kind,
+    //            then an item encoded as in BoardFile, or the REMOVE's targets as distances back from its seq
+    private static final int MAGIC = 0x57425243;       // "WBRC"
+    public static final short VERSION = 1;
+    private static final int HEADER_BYTES = 14;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    private static final byte ITEM = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAR = 3;
+
+    private final DataOutputStream out;
+    private final long startMillis = System.currentTimeMillis();
+    private long lastMillis = startMillis;
+    private long lastSeq = 0;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "session-recorder");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public SessionRecorder(Path file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(startMillis);
+        writer.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        System.out.println("[Server] Recording the session to " + file);
+    }
+
+    // Called in commit order, the time is taken now so the writer thread's delays don't show in playback
+    public void record(DrawCommand op) {
+        long now = System.currentTimeMillis();
+        writer.execute(() -> write(op, now));
+    }
+
+    private void write(DrawCommand op, long now) {
+        try {
+            BoardFile.writeVarint(out, (int) Math.max(0, now - lastMillis));
+            BoardFile.writeVarint(out, (int) (op.getSeq() - lastSeq));
+            lastMillis = Math.max(lastMillis, now);
+            lastSeq = op.getSeq();
+            switch (op.getType()) {
+                case REMOVE -> {
+                    out.writeByte(REMOVE);
+                    BoardFile.writeVarint(out, op.getTargets().length);
+                    for (long target : op.getTargets()) {
+                        BoardFile.writeVarint(out, (int) (op.getSeq() - target));
+                    }
+                }
+                case CLEAR -> out.writeByte(CLEAR);
+                default -> {
+                    out.writeByte(ITEM);
+                    BoardFile.writeItem(out, op.getItem());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[Server] Error recording the session: " + e.getMessage());
+        }
+    }
+
+    private void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("[Server] Error recording the session: " + e.getMessage());
+        }
+    }
+
+    public void close() {
+        writer.execute(() -> {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("[Server] Error closing the recording: " + e.getMessage());
+            }
+        });
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // An op in a recording, at its time since the recording started
+    public record Event(long millis, DrawCommand op) {}
+
+    // Reads a whole recording. A recording cut short by a crash ends at its last complete record.
+    public static List<Event> read(Path file) throws IOException {
+        MappedByteBuffer in;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_BYTES || ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not a session recording: " + file);
+            }
+            in = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (in.getInt() != MAGIC) {
+            throw new IOException("Not a session recording: " + file);
+        }
+        short version = in.getShort();
+        if (version > VERSION) {
+            throw new IOException("Recording version " + version + " is newer than this program supports");
+        }
+        in.getLong();
+
+        List<Event> events = new ArrayList<>();
+        long millis = 0, seq = 0;
+        while (in.hasRemaining()) {
+            int start = in.position();
+            try {
+                millis += BoardFile.readVarint(in);
+                seq += BoardFile.readVarint(in);
+                DrawCommand op = readOp(in, seq);
+                op.setSeq(seq);
+                events.add(new Event(millis, op));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Recording ends in an incomplete record at byte " + start);
+                break;
+            }
+        }
+        return events;
+    }
+
+    private static DrawCommand readOp(ByteBuffer in, long seq) throws IOException {
+        byte kind = in.get();
+        return switch (kind) {
+            case ITEM -> BoardFile.toCommand(BoardFile.readItem(in), null);
+            case CLEAR -> new DrawCommand(DrawCommand.CommandType.CLEAR);
+            case REMOVE -> {
+                int count = BoardFile.readVarint(in);
+                if (count < 0 || count > in.remaining()) {
+                    throw new IOException("Corrupt REMOVE record");
+                }
+                long[] targets = new long[count];
+                for (int i = 0; i < count; i++) targets[i] = seq - BoardFile.readVarint(in);
+                DrawCommand remove = new DrawCommand(DrawCommand.CommandType.REMOVE);
+                remove.setTargets(targets);
+                yield remove;
+            }
+            default -> throw new IOException("Unknown record kind " + kind);
+        };
+    }
+}
@@ -0,0 +1,105 @@
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class SessionRegistry {
+    // Approved users get a resume token. When their connection drops the session is held for a grace
+    // period, and a client presenting the token within it skips approval and only gets the ops it missed.
+    private static final SecureRandom random = new SecureRandom();
+
+    private final Map<String, Session> sessions = new HashMap<>();
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "session-reaper");
+        t.setDaemon(true);
+        return t;
+    });
+    private long graceMillis;
+
+    private static class Session {
+        private final String username;
+        private ClientHandler handler;
+        private ScheduledFuture<?> expiry;
+
+        private Session(String username, ClientHandler handler) {
+            this.username = username;
+            this.handler = handler;
+        }
+    }
+
+    public SessionRegistry(long graceMillis) {
+        this.graceMillis = graceMillis;
+    }
+
+    public synchronized String issue(String username, ClientHandler handler) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String token = HexFormat.of().formatHex(bytes);
+        sessions.put(token, new Session(username, handler));
+        return token;
+    }
+
+    // Hands the session to a new connection. A connection still holding it (e.g. half-open) is closed.
+    public boolean resume(String token, String username, ClientHandler handler) {
+        ClientHandler previous;
+        synchronized (this) {
+            Session s = token != null ? sessions.get(token) : null;
+            if (s == null || !s.username.equals(username)) {
+                return false;
+            }
+            if (s.expiry != null) {
+                s.expiry.cancel(false);
+                s.expiry = null;
+            }
+            previous = s.handler;
+            s.handler = handler;
+        }
+        if (previous != null && previous != handler) {
+            try {
+                previous.closeSocket();
+            } catch (Exception e) {
+                System.err.println("[Server] Error closing superseded connection for " + username + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    // Starts the grace period, false if the handler no longer owns the session
+    public synchronized boolean detach(String token, ClientHandler handler, Runnable onExpire) {
+        Session s = token != null ? sessions.get(token) : null;
+        if (s == null || s.handler != handler) {
+            return false;
+        }
+        s.handler = null;
+        s.expiry = reaper.schedule(() -> {
+            synchronized (SessionRegistry.this) {
+                if (sessions.get(token) != s || s.handler != null) return;
+                sessions.remove(token);
+            }
+            System.out.println("[Server] Session for " + s.username + " expired.");
+            onExpire.run();
+        }, graceMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    // Drops the session for good, false if another connection has taken it over
+    public synchronized boolean end(String token, ClientHandler handler) {
+        Session s = token != null ? sessions.get(token) : null;
+        if (s == null) {
+            return true;
+        }
+        if (s.handler != handler) {
+            return false;
+        }
+        sessions.remove(token);
+        return true;
+    }
+
+    public void setGraceMillis(long graceMillis) {
+        this.graceMillis = graceMillis;
+    }
+}
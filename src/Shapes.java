@@ -1,7 +1,7 @@
 import java.awt.*;
 import java.io.Serializable;
 
-public abstract class Shapes implements Serializable {
+public abstract class Shapes implements BoardItem, Serializable, Cloneable {
     private Point startPoint = new Point();
     private Point endPoint = new Point();
     private float strokeWidth;
@@ -22,7 +22,24 @@ public abstract class Shapes implements Serializable {
         this.intermediate = intermediate;
     }
 
-    public abstract void draw(Graphics2D g);
+    // The geometry the shape strokes, shared by drawing and eraser hit-testing
+    public abstract Shape getOutline();
+
+    @Override
+    public void draw(Graphics2D g) {
+        g.setColor(getColor());
+        g.setStroke(new BasicStroke(getStrokeWidth()));
+        g.draw(getOutline());
+    }
+
+    @Override
+    public Rectangle getBounds() {
+        Rectangle r = new Rectangle(startPoint);
+        r.add(endPoint);
+        int pad = (int) Math.ceil(strokeWidth / 2) + 1;
+        r.grow(pad, pad);
+        return r;
+    }
 
     public Color getColor() {
         return this.color;
@@ -44,6 +61,16 @@ public abstract class Shapes implements Serializable {
         return strokeWidth;
     }
 
+    // The shape as it is now, for sending one that is still being drawn. The points are replaced, never
+    // changed, so they can be shared.
+    public Shapes copy() {
+        try {
+            return (Shapes) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     public boolean getIntermediate() {
         return intermediate;
     }
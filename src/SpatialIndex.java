@@ -0,0 +1,83 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class SpatialIndex {
+    // Uniform grid over board items. Shapes and text are filed under the cells their bounds cover,
+    // strokes under the cells of each segment, so a long diagonal stroke doesn't claim its whole bounding box.
+    private static final int CELL_SIZE = 128;
+
+    private final Map<Long, List<Entry>> cells = new HashMap<>();
+    private long nextOrder = 0;
+
+    private record Entry(long order, DrawCommand op) {}
+
+    public void insert(DrawCommand op) {
+        Entry entry = new Entry(nextOrder++, op);
+        for (long key : cellsFor(op.getItem())) {
+            cells.computeIfAbsent(key, k -> new ArrayList<>()).add(entry);
+        }
+    }
+
+    public void remove(DrawCommand op) {
+        for (long key : cellsFor(op.getItem())) {
+            List<Entry> cell = cells.get(key);
+            if (cell == null) continue;
+            cell.removeIf(e -> e.op == op);
+            if (cell.isEmpty()) cells.remove(key);
+        }
+    }
+
+    // Items whose cells overlap the area, in the order they were inserted (i.e. paint order)
+    public List<DrawCommand> query(Rectangle area) {
+        List<Entry> found = new ArrayList<>();
+        Set<DrawCommand> seen = new HashSet<>();
+        for (long key : cellsFor(area)) {
+            List<Entry> cell = cells.get(key);
+            if (cell == null) continue;
+            for (Entry e : cell) {
+                if (seen.add(e.op)) found.add(e);
+            }
+        }
+        found.sort((a, b) -> Long.compare(a.order, b.order));
+        List<DrawCommand> result = new ArrayList<>(found.size());
+        for (Entry e : found) result.add(e.op);
+        return result;
+    }
+
+    public void clear() {
+        cells.clear();
+    }
+
+    private static Set<Long> cellsFor(BoardItem item) {
+        if (item instanceof StrokeData stroke && stroke.size() > 1) {
+            Set<Long> keys = new LinkedHashSet<>();
+            int pad = (int) Math.ceil(stroke.getWidth() / 2) + 1;
+            for (int i = 1; i < stroke.size(); i++) {
+                Rectangle segment = new Rectangle(stroke.getPoint(i - 1));
+                segment.add(stroke.getPoint(i));
+                segment.grow(pad, pad);
+                keys.addAll(cellsFor(segment));
+            }
+            return keys;
+        }
+        return cellsFor(item.getBounds());
+    }
+
+    private static Set<Long> cellsFor(Rectangle r) {
+        Set<Long> keys = new LinkedHashSet<>();
+        int x0 = Math.floorDiv(r.x, CELL_SIZE), x1 = Math.floorDiv(r.x + r.width, CELL_SIZE);
+        int y0 = Math.floorDiv(r.y, CELL_SIZE), y1 = Math.floorDiv(r.y + r.height, CELL_SIZE);
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                keys.add(((long) x << 32) | (y & 0xffffffffL));
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,29 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+public class StreamCompression {
+    // Optional deflate compression of a connection, agreed on in the HELLO exchange. The client offers it
+    // in its HELLO, the server answers with a HELLO naming the codec it accepted (or none), and from then
+    // on both sides build fresh object streams over the compressed ones. Every ObjectOutputStream.flush()
+    // is a deflate sync flush, so each message goes out whole right away and live strokes aren't held back.
+    public static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    public static boolean isSupported(String codec) {
+        return DEFLATE.equals(codec);
+    }
+
+    public static OutputStream compress(OutputStream out) {
+        // Fastest level, drawing traffic is repetitive enough that higher levels buy little for the CPU
+        return new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE, true);
+    }
+
+    public static InputStream decompress(InputStream in) {
+        return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE);
+    }
+}
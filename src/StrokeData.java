@@ -1,13 +1,22 @@
 import java.awt.*;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Objects;
 
-public class StrokeData implements Serializable {
+public class StrokeData implements BoardItem, Serializable {
     private final Color color;
     private final float width;
-    private final List<Point> points = new ArrayList<>();
+    // Points packed as x0, y0, x1, y1... rather than one Point object each, a busy board holds millions
+    private int[] coords = new int[16];
+    private int size = 0;
     private boolean intermediate;
+    private transient Rectangle bounds;     // cached, recomputed when points are added
+    private transient int boundsPoints;
 
     public StrokeData(Color color, float width, boolean intermediate) {
         this.color = color;
@@ -15,18 +24,35 @@ public class StrokeData implements Serializable {
         this.intermediate = intermediate;
     }
 
-    public void addPoint(Point p) { points.add(p); }
+    public void addPoint(Point p) {
+        if (2 * size == coords.length) {
+            coords = Arrays.copyOf(coords, Math.max(16, coords.length * 2));
+        }
+        coords[2 * size] = p.x;
+        coords[2 * size + 1] = p.y;
+        size++;
+    }
 
-    public Point getPoint(int i) { return points.get(i); }
+    // The points so far, for sending a stroke that is still being drawn
+    public StrokeData copy() {
+        StrokeData copy = new StrokeData(color, width, intermediate);
+        copy.coords = Arrays.copyOf(coords, Math.max(16, 2 * size));
+        copy.size = size;
+        return copy;
+    }
 
+    public Point getPoint(int i) {
+        Objects.checkIndex(i, size);
+        return new Point(coords[2 * i], coords[2 * i + 1]);
+    }
 
     public Color getColor() { return color; }
 
     public float getWidth() { return width; }
 
-    public int size() { return points.size(); }
+    public int size() { return size; }
 
-    public Point getStartPoint() { return points.getFirst(); }
+    public Point getStartPoint() { return getPoint(0); }
 
     public boolean isIntermediate() {
         return intermediate;
@@ -36,4 +62,56 @@ public class StrokeData implements Serializable {
         this.intermediate = intermediate;
     }
 
+    @Override
+    public Rectangle getBounds() {
+        if (size == 0) {
+            return new Rectangle();
+        }
+        if (bounds == null || boundsPoints != size) {
+            Rectangle r = new Rectangle(coords[0], coords[1], 0, 0);
+            for (int i = 1; i < size; i++) {
+                r.add(coords[2 * i], coords[2 * i + 1]);
+            }
+            int pad = (int) Math.ceil(width / 2) + 1;
+            r.grow(pad, pad);
+            bounds = r;
+            boundsPoints = size;
+        }
+        return new Rectangle(bounds);
+    }
+
+    @Override
+    public void draw(Graphics2D g) {
+        g.setColor(color);
+        g.setStroke(new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        if (size > 1) {
+            for (int i = 1; i < size; i++) {
+                g.drawLine(coords[2 * i - 2], coords[2 * i - 1], coords[2 * i], coords[2 * i + 1]);
+            }
+        } else if (size == 1) {
+            int w = (int) width;
+            g.fillOval(coords[0] - w/2, coords[1] - w/2, w, w);
+        }
+    }
+
+    // Only the points in use go on the wire, not the spare capacity
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("color", color);
+        fields.put("width", width);
+        fields.put("coords", Arrays.copyOf(coords, 2 * size));
+        fields.put("size", size);
+        fields.put("intermediate", intermediate);
+        out.writeFields();
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (size < 0 || coords == null || coords.length < 2 * size) {
+            throw new InvalidObjectException("Stroke of " + size + " points has only " + (coords == null ? 0 : coords.length / 2));
+        }
+    }
+
 }
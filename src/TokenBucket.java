@@ -0,0 +1,24 @@
+public class TokenBucket {
+    // Holds up to burst tokens and refills at rate tokens per second. Only used from one thread at a time.
+    private final double rate;
+    private final double burst;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    public TokenBucket(double rate, double burst) {
+        this.rate = rate;
+        this.burst = burst;
+        this.tokens = burst;
+    }
+
+    public boolean tryTake() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1_000_000_000.0);
+        lastRefill = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
@@ -9,10 +9,7 @@ public class Triangles extends ClosedShapes {
     }
 
     @Override
-    public void draw(Graphics2D g) {
-        g.setColor(getColor());
-        g.setStroke(new BasicStroke(getStrokeWidth()));
-
+    public Shape getOutline() {
         double topX = getTopLeftX();
         double topY = getTopLeftY();
         double width = getWidth();
@@ -33,6 +30,6 @@ public class Triangles extends ClosedShapes {
         triangle.lineTo(x3, y3);
         triangle.closePath();
 
-        g.draw(triangle);
+        return triangle;
     }
 }
@@ -0,0 +1,61 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+public class UndoHistory {
+    // Per-user undo and redo stacks over the board log. Undo holds the seqs of a user's own items, redo
+    // holds the items their undos removed. Guarded by the server's board lock.
+    private final Map<String, Deque<Long>> undo = new HashMap<>();
+    private final Map<String, Deque<DrawCommand>> redo = new HashMap<>();
+
+    public void recordItem(DrawCommand op) {
+        if (op.getUsername() == null) return;
+        undo.computeIfAbsent(op.getUsername(), u -> new ArrayDeque<>()).push(op.getSeq());
+        // A new item starts a new branch, a restored one (it has targets) keeps the rest of the redo stack
+        if (op.getTargets() == null) {
+            redo.remove(op.getUsername());
+        }
+    }
+
+    public void recordUndone(String user, DrawCommand removed) {
+        if (user != null && user.equals(removed.getUsername())) {
+            redo.computeIfAbsent(user, u -> new ArrayDeque<>()).push(removed);
+        }
+    }
+
+    public void startBranch(String user) {
+        if (user != null) redo.remove(user);
+    }
+
+    // The user's newest item that is still on the board, or -1
+    public long nextUndo(String user, BoardLog log) {
+        Deque<Long> stack = undo.get(user);
+        while (stack != null && !stack.isEmpty()) {
+            DrawCommand op = log.get(stack.pop());
+            if (op != null && !op.isRemoved()) {
+                return op.getSeq();
+            }
+        }
+        return -1;
+    }
+
+    public DrawCommand nextRedo(String user) {
+        Deque<DrawCommand> stack = redo.get(user);
+        return stack == null ? null : stack.poll();
+    }
+
+    // Drops the seqs of items flattened into the base layer, they can't be undone any more
+    public void forget(long upToSeq) {
+        for (Deque<Long> stack : undo.values()) {
+            while (!stack.isEmpty() && stack.peekLast() <= upToSeq) {
+                stack.pollLast();
+            }
+        }
+    }
+
+    public void clear() {
+        undo.clear();
+        redo.clear();
+    }
+}
@@ -0,0 +1,17 @@
+public class AllTests {
+    public static void main(String[] args) throws Exception {
+        BoardLogTest.main(args);
+        SessionRegistryTest.main(args);
+        DisplayListTest.main(args);
+        ChatStoreTest.main(args);
+        RosterTest.main(args);
+        RateLimiterTest.main(args);
+        StreamCompressionTest.main(args);
+        BoardFileTest.main(args);
+        BaseLayerTest.main(args);
+        OffHeapStoreTest.main(args);
+        OutboundQueueTest.main(args);
+        CommittedOpsTest.main(args);
+        ResumeTest.main(args);
+    }
+}
@@ -0,0 +1,84 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class BaseLayerTest {
+    public static void main(String[] args) {
+        Check.run("BaseLayerTest",
+                Check.test("deltaHoldsOnlyRepaintedTiles", BaseLayerTest::deltaHoldsOnlyRepaintedTiles),
+                Check.test("deltaOverPreviousMatchesFullLayer", BaseLayerTest::deltaOverPreviousMatchesFullLayer),
+                Check.test("archiveKeepsOrderThroughCompaction", BaseLayerTest::archiveKeepsOrderThroughCompaction),
+                Check.test("archiveCloseDeletesFiles", BaseLayerTest::archiveCloseDeletesFiles));
+    }
+
+    static BoardItem box(int x, int y) {
+        return new Rectangles(new Point(x, y), new Point(x + 40, y + 40), 4, Color.RED, false);
+    }
+
+    static int pixel(BaseLayer layer, int x, int y) {
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 1, 1);
+        g.translate(-x, -y);
+        layer.draw(g);
+        g.dispose();
+        return image.getRGB(0, 0);
+    }
+
+    static void deltaHoldsOnlyRepaintedTiles() throws Exception {
+        BaseLayer first = BaseLayer.flatten(null, List.of(box(100, 100), box(5000, 5000)), 2);
+        BaseLayer second = BaseLayer.flatten(first, List.of(box(120, 300)), 3);
+        BaseLayer delta = second.changesFrom(first);
+        Check.that(delta.isPartial() && !second.isPartial(), "only the delta is partial");
+        Check.equal(3L, delta.getSeq(), "seq");
+        Check.that(delta.getBytes() < second.getBytes(), "the far tile isn't sent again");
+        Check.equal(Color.WHITE.getRGB(), pixel(delta, 5000, 5000), "far tile left out");
+        Check.equal(Color.RED.getRGB(), pixel(delta, 120, 300), "new item in");
+        Check.that(second.changesFrom(null) == second, "nothing to go over, the whole layer");
+    }
+
+    static void deltaOverPreviousMatchesFullLayer() throws Exception {
+        BaseLayer first = BaseLayer.flatten(null, List.of(box(100, 100), box(5000, 5000)), 2);
+        BaseLayer second = BaseLayer.flatten(first, List.of(box(120, 300), box(-800, 40)), 4);
+        BaseLayer merged = second.changesFrom(first).applyTo(first);
+        Check.that(!merged.isPartial(), "merged layer is whole");
+        Check.equal(second.getBytes(), merged.getBytes(), "same tiles");
+        for (Point p : List.of(new Point(100, 100), new Point(5000, 5000), new Point(120, 300), new Point(-800, 40))) {
+            Check.equal(pixel(second, p.x, p.y), pixel(merged, p.x, p.y), "pixel at " + p);
+        }
+    }
+
+    static void archiveKeepsOrderThroughCompaction() throws Exception {
+        ItemArchive archive = ItemArchive.createTemp("archive-test");
+        try {
+            for (int i = 0; i < 40; i++) archive.append(List.of(box(i, 0), box(i, 1)));
+            List<Point> starts = new ArrayList<>();
+            for (BoardItem item : archive.items()) starts.add(((Shapes) item).getStartPoint());
+            Check.equal(80, starts.size(), "every item kept");
+            for (int i = 0; i < 80; i++) {
+                Check.equal(new Point(i / 2, i % 2), starts.get(i), "item " + i);
+            }
+        } finally {
+            archive.close();
+        }
+    }
+
+    static void archiveCloseDeletesFiles() throws Exception {
+        Path dir = Files.createTempDirectory("archive-test");
+        ItemArchive archive = new ItemArchive(dir);
+        for (int i = 0; i < 20; i++) archive.append(List.of(box(i, 0)));
+        try (Stream<Path> files = Files.list(dir)) {
+            Check.that(files.count() <= 16, "segments were merged");
+        }
+        archive.close();
+        Check.that(!Files.exists(dir), "directory deleted");
+        Check.that(archive.isEmpty(), "no segments left");
+    }
+}
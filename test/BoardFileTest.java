@@ -0,0 +1,120 @@
+import java.awt.Color;
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BoardFileTest {
+    public static void main(String[] args) {
+        Check.run("BoardFileTest",
+                Check.test("roundTripsEveryKind", BoardFileTest::roundTripsEveryKind),
+                Check.test("indexHoldsBounds", BoardFileTest::indexHoldsBounds),
+                Check.test("writesEmptyBoard", BoardFileTest::writesEmptyBoard),
+                Check.test("rejectsOtherFiles", BoardFileTest::rejectsOtherFiles),
+                Check.test("rejectsCorruptIndex", BoardFileTest::rejectsCorruptIndex));
+    }
+
+    static List<BoardItem> everyKind() {
+        StrokeData stroke = new StrokeData(new Color(10, 20, 30, 128), 4.5f, false);
+        stroke.addPoint(new Point(-300, 5));
+        stroke.addPoint(new Point(-298, -70000));
+        stroke.addPoint(new Point(100_000, 2));
+        return List.of(
+                stroke,
+                new Lines(new Point(1, 2), new Point(30, 40), 2, Color.RED, false),
+                new Rectangles(new Point(-5, -5), new Point(5, 5), 1, Color.GREEN, false),
+                new Ovals(new Point(0, 0), new Point(80, 40), 3, Color.BLUE, false),
+                new Triangles(new Point(10, 10), new Point(60, 90), 2, Color.BLACK, false),
+                new DrawText("Gr\u00fc\u00dfe \u2713", new Point(7, 8), 18, Color.MAGENTA));
+    }
+
+    static Path write(List<BoardItem> items) throws IOException {
+        Path file = Files.createTempFile("board-test", ".wbd");
+        BoardFile.write(file, items);
+        return file;
+    }
+
+    static void roundTripsEveryKind() throws Exception {
+        List<BoardItem> items = everyKind();
+        Path file = write(items);
+        try {
+            BoardFile board = BoardFile.open(file);
+            Check.equal(items.size(), board.size(), "item count");
+            List<BoardItem> read = new ArrayList<>();
+            for (BoardItem item : board) read.add(item);
+
+            StrokeData stroke = (StrokeData) read.get(0);
+            Check.equal(3, stroke.size(), "stroke points");
+            Check.equal(new Point(-298, -70000), stroke.getPoint(1), "negative delta");
+            Check.equal(new Point(100_000, 2), stroke.getPoint(2), "large delta");
+            Check.equal(new Color(10, 20, 30, 128), stroke.getColor(), "alpha kept");
+            Check.equal(4.5f, stroke.getWidth(), "width");
+            for (int i = 1; i <= 4; i++) {
+                Shapes expected = (Shapes) items.get(i);
+                Shapes actual = (Shapes) read.get(i);
+                Check.equal(expected.getClass(), actual.getClass(), "shape kind " + i);
+                Check.equal(expected.getStartPoint(), actual.getStartPoint(), "start " + i);
+                Check.equal(expected.getEndPoint(), actual.getEndPoint(), "end " + i);
+                Check.equal(expected.getColor(), actual.getColor(), "colour " + i);
+            }
+            DrawText text = (DrawText) read.get(5);
+            Check.equal("Gr\u00fc\u00dfe \u2713", text.text(), "text");
+            Check.equal(new Point(7, 8), text.pos(), "position");
+            Check.equal(18, text.fontSize(), "font size");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    static void indexHoldsBounds() throws Exception {
+        List<BoardItem> items = everyKind();
+        Path file = write(items);
+        try {
+            BoardFile board = BoardFile.open(file);
+            for (int i = 0; i < items.size(); i++) {
+                Check.equal(items.get(i).getBounds(), board.getBounds(i), "bounds of " + i);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    static void writesEmptyBoard() throws Exception {
+        Path file = write(List.of());
+        try {
+            BoardFile board = BoardFile.open(file);
+            Check.equal(0, board.size(), "no items");
+            Check.that(!board.iterator().hasNext(), "nothing to iterate");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    static void rejectsOtherFiles() throws Exception {
+        Path file = Files.createTempFile("board-test", ".wbd");
+        try {
+            Files.write(file, "this is not a board, only some text".getBytes());
+            BoardFile.open(file);
+            throw new AssertionError("opened a text file");
+        } catch (IOException expected) {
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    static void rejectsCorruptIndex() throws Exception {
+        Path file = write(everyKind());
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[8] = 0x7f;        // item count far past the end of the file
+            Files.write(file, bytes);
+            BoardFile.open(file);
+            throw new AssertionError("opened a file whose index runs past its end");
+        } catch (IOException expected) {
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.awt.Color;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BoardLogTest {
+    public static void main(String[] args) {
+        Check.run("BoardLogTest",
+                Check.test("stampsAscendingSeqs", BoardLogTest::stampsAscendingSeqs),
+                Check.test("keepsRelayedSeq", BoardLogTest::keepsRelayedSeq),
+                Check.test("servesOnlyMissedOps", BoardLogTest::servesOnlyMissedOps),
+                Check.test("clearStartsNewFloor", BoardLogTest::clearStartsNewFloor),
+                Check.test("compactsOnceHalfRemoved", BoardLogTest::compactsOnceHalfRemoved),
+                Check.test("dropThroughRaisesFloor", BoardLogTest::dropThroughRaisesFloor));
+    }
+
+    static DrawCommand rect(int x) {
+        return new DrawCommand(new Rectangles(new Point(x, x), new Point(x + 5, x + 5), 2, Color.RED, false), "alice");
+    }
+
+    static List<Long> seqs(Iterable<DrawCommand> ops) {
+        List<Long> seqs = new ArrayList<>();
+        for (DrawCommand op : ops) seqs.add(op.getSeq());
+        return seqs;
+    }
+
+    static void stampsAscendingSeqs() {
+        BoardLog log = new BoardLog();
+        for (int i = 0; i < 5; i++) log.append(rect(i));
+        Check.equal(List.of(1L, 2L, 3L, 4L, 5L), seqs(log.all()), "seqs");
+        Check.equal(5L, log.getLastSeq(), "last seq");
+        Check.equal(3L, log.get(3).getSeq(), "get by seq");
+    }
+
+    static void keepsRelayedSeq() {
+        BoardLog log = new BoardLog();
+        DrawCommand relayed = rect(1);
+        relayed.setSeq(42);
+        log.append(relayed);
+        log.append(rect(2));
+        Check.equal(List.of(42L, 43L), seqs(log.all()), "seqs");
+    }
+
+    static void servesOnlyMissedOps() {
+        BoardLog log = new BoardLog();
+        for (int i = 0; i < 5; i++) log.append(rect(i));
+        Check.equal(List.of(4L, 5L), seqs(log.since(3)), "ops after 3");
+        Check.equal(List.of(), seqs(log.since(5)), "client up to date");
+        Check.that(log.since(6) == null, "a seq from the future needs a full replay");
+    }
+
+    static void clearStartsNewFloor() {
+        BoardLog log = new BoardLog();
+        for (int i = 0; i < 3; i++) log.append(rect(i));
+        log.append(new DrawCommand(DrawCommand.CommandType.CLEAR, "alice"));
+        log.append(rect(9));
+        Check.equal(List.of(4L, 5L), seqs(log.all()), "only the CLEAR and after are kept");
+        Check.that(log.since(2) == null, "a client from before the CLEAR needs a full replay");
+        Check.equal(List.of(4L, 5L), seqs(log.since(3)), "a client just before the CLEAR gets it");
+    }
+
+    static void compactsOnceHalfRemoved() {
+        BoardLog log = new BoardLog();
+        for (int i = 0; i < 600; i++) log.append(rect(i));
+        for (long seq = 1; seq <= 299; seq++) log.markRemoved(seq);
+        log.maybeCompact();
+        Check.equal(600, log.size(), "not compacted below half removed");
+
+        log.markRemoved(300);
+        Check.that(log.markRemoved(300) == null, "an item is only removed once");
+        log.maybeCompact();
+        Check.equal(300, log.size(), "removed items dropped");
+        Check.equal(301L, log.all().iterator().next().getSeq(), "first live op");
+        Check.that(log.since(400) == null, "clients from before the compaction need a full replay");
+        Check.equal(List.of(), seqs(log.since(600)), "an up to date client still gets a delta");
+    }
+
+    static void dropThroughRaisesFloor() {
+        BoardLog log = new BoardLog();
+        for (int i = 0; i < 10; i++) log.append(rect(i));
+        long before = log.getBytes();
+        List<DrawCommand> oldest = log.oldest(before / 2);
+        Check.that(!oldest.isEmpty() && oldest.size() < 10, "oldest takes some but not all");
+        long covered = oldest.get(oldest.size() - 1).getSeq();
+        log.dropThrough(covered);
+        Check.equal(covered, log.getFloorSeq(), "floor");
+        Check.equal(covered + 1, log.all().iterator().next().getSeq(), "first op left");
+        Check.that(log.getBytes() <= before / 2, "within the budget");
+        Check.that(log.since(covered - 1) == null, "clients from before need a full replay");
+        Check.equal(List.of(10L), seqs(log.since(9)), "later clients still get a delta");
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChatStoreTest {
+    public static void main(String[] args) {
+        Check.run("ChatStoreTest",
+                Check.test("handsOutIdsInOrder", ChatStoreTest::handsOutIdsInOrder),
+                Check.test("recentIsOldestFirst", ChatStoreTest::recentIsOldestFirst),
+                Check.test("pagesBackThroughSpill", ChatStoreTest::pagesBackThroughSpill),
+                Check.test("clearKeepsIdsGoing", ChatStoreTest::clearKeepsIdsGoing),
+                Check.test("relayedIdJumpDropsOlder", ChatStoreTest::relayedIdJumpDropsOlder));
+    }
+
+    static ChatStore storeWith(int capacity, int messages) {
+        ChatStore store = new ChatStore(capacity);
+        for (int i = 1; i <= messages; i++) store.add(new ChatData("alice", "message " + i), 0);
+        return store;
+    }
+
+    static List<Long> ids(List<ChatData> chats) {
+        List<Long> ids = new ArrayList<>();
+        for (ChatData c : chats) ids.add(c.getId());
+        return ids;
+    }
+
+    static void handsOutIdsInOrder() {
+        ChatStore store = new ChatStore(4);
+        Check.equal(1L, store.add(new ChatData("alice", "hi"), 0), "first id");
+        Check.equal(2L, store.add(new ChatData("bob", "hello"), 0), "second id");
+        Check.equal(1L, store.getFirstId(), "first id available");
+    }
+
+    static void recentIsOldestFirst() {
+        ChatStore store = storeWith(4, 6);
+        Check.equal(List.of(5L, 6L), ids(store.recent(2)), "last two");
+        Check.equal(List.of(3L, 4L, 5L, 6L), ids(store.recent(10)), "only what is in memory");
+    }
+
+    static void pagesBackThroughSpill() {
+        ChatStore store = storeWith(4, 10);
+        List<ChatData> page = store.page(7, 3);
+        Check.equal(List.of(6L, 5L, 4L), ids(page), "newest first, partly spilled");
+        Check.equal("message 5", page.get(1).getMessage(), "spilled message read back");
+        Check.equal(List.of(3L, 2L, 1L), ids(store.page(4, 5)), "down to the first message");
+        Check.equal(List.of(), ids(store.page(1, 5)), "nothing before the first");
+    }
+
+    static void clearKeepsIdsGoing() {
+        ChatStore store = storeWith(4, 10);
+        store.clear();
+        Check.equal(List.of(), ids(store.recent(5)), "nothing in memory");
+        Check.equal(List.of(), ids(store.page(11, 5)), "nothing on disk");
+        Check.equal(11L, store.add(new ChatData("alice", "after"), 0), "ids are never reused");
+        Check.equal(11L, store.getFirstId(), "first id after the clear");
+    }
+
+    static void relayedIdJumpDropsOlder() {
+        ChatStore store = storeWith(4, 3);
+        Check.equal(50L, store.add(new ChatData("bob", "relayed"), 50), "relayed id kept");
+        Check.equal(50L, store.getFirstId(), "older ids only on the primary");
+        Check.equal(List.of(50L), ids(store.recent(5)), "only the relayed message");
+        Check.equal(51L, store.add(new ChatData("bob", "next"), 0), "ids carry on from it");
+    }
+}
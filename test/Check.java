@@ -0,0 +1,44 @@
+import java.util.Objects;
+
+public class Check {
+    // The few assertions the tests need, so they run with nothing but the JDK:
+    //   javac -d out src/*.java test/*.java && java -cp out AllTests
+    private Check() {}
+
+    @FunctionalInterface
+    public interface Body {
+        void run() throws Exception;
+    }
+
+    public record Case(String name, Body body) {}
+
+    public static Case test(String name, Body body) {
+        return new Case(name, body);
+    }
+
+    // Runs every case, a failure names the suite and the case
+    public static void run(String suite, Case... cases) {
+        for (Case c : cases) {
+            try {
+                c.body().run();
+            } catch (AssertionError e) {
+                throw new AssertionError(suite + "." + c.name() + ": " + e.getMessage(), e);
+            } catch (Exception e) {
+                throw new AssertionError(suite + "." + c.name() + " threw " + e, e);
+            }
+        }
+        System.out.println(suite + ": " + cases.length + " passed");
+    }
+
+    public static void that(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+
+    public static void equal(Object expected, Object actual, String what) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.awt.Color;
+import java.awt.Point;
+
+public class CommittedOpsTest {
+    public static void main(String[] args) {
+        Check.run("CommittedOpsTest",
+                Check.test("replayOfCommittedOpIsDuplicate", CommittedOpsTest::replayOfCommittedOpIsDuplicate),
+                Check.test("gapCanStillBeFilled", CommittedOpsTest::gapCanStillBeFilled),
+                Check.test("idsBelowWindowCountAsCommitted", CommittedOpsTest::idsBelowWindowCountAsCommitted),
+                Check.test("newSessionStartsOver", CommittedOpsTest::newSessionStartsOver),
+                Check.test("serverCommitsReplayOnlyOnce", CommittedOpsTest::serverCommitsReplayOnlyOnce),
+                Check.test("serverCommitsReplayOfRejectedOp", CommittedOpsTest::serverCommitsReplayOfRejectedOp));
+    }
+
+    static void replayOfCommittedOpIsDuplicate() {
+        CommittedOps ops = new CommittedOps();
+        Check.that(!ops.commit("alice", 1), "first time");
+        Check.that(!ops.commit("alice", 2), "next op");
+        Check.that(ops.commit("alice", 1), "sent again");
+        Check.that(!ops.commit("bob", 1), "another user's op 1");
+    }
+
+    // An op that was rejected, or lost, leaves a gap a resend after a resume may fill
+    static void gapCanStillBeFilled() {
+        CommittedOps ops = new CommittedOps();
+        ops.commit("alice", 1);
+        ops.commit("alice", 3);
+        ops.commit("alice", 4);
+        Check.that(!ops.commit("alice", 2), "op 2 was never committed");
+        Check.that(ops.commit("alice", 2), "but only once");
+    }
+
+    static void idsBelowWindowCountAsCommitted() {
+        CommittedOps ops = new CommittedOps();
+        ops.commit("alice", 1);
+        for (long id = 3; id <= 10_000; id++) ops.commit("alice", id);
+        Check.that(ops.commit("alice", 2), "far behind the window");
+        Check.that(!ops.commit("alice", 10_002), "a gap inside the window");
+        Check.that(ops.commit("alice", 9_000), "committed inside the window");
+    }
+
+    static void newSessionStartsOver() {
+        CommittedOps ops = new CommittedOps();
+        ops.commit("alice", 1);
+        ops.forget("alice");
+        Check.that(!ops.commit("alice", 1), "a new session's op 1");
+    }
+
+    static DrawCommand rect(long opId) {
+        DrawCommand op = new DrawCommand(new Rectangles(new Point(1, 1), new Point(9, 9), 2, Color.RED, false), "bob");
+        op.setOpId(opId);
+        return op;
+    }
+
+    // The server's side of a resume: what the client sends again must not be drawn twice
+    static void serverCommitsReplayOnlyOnce() {
+        CreateWhiteBoard server = new CreateWhiteBoard(0, "alice");
+        server.commit(rect(1), server.getNodeId(), -1);
+        server.commit(rect(2), server.getNodeId(), -1);
+        server.commit(rect(1), server.getNodeId(), -1);
+        server.commit(rect(2), server.getNodeId(), -1);
+        Check.equal(2, server.getBoardLog().size(), "each op once");
+        Check.equal(2L, server.getBoardLog().getLastSeq(), "no seq spent on the replays");
+    }
+
+    // Op 2 was rate limited before it reached the board and its REJECTED never arrived, so the client
+    // still shows it and sends it again once later ops were committed
+    static void serverCommitsReplayOfRejectedOp() {
+        CreateWhiteBoard server = new CreateWhiteBoard(0, "alice");
+        server.commit(rect(1), server.getNodeId(), -1);
+        server.commit(rect(3), server.getNodeId(), -1);
+        server.commit(rect(2), server.getNodeId(), -1);
+        Check.equal(3, server.getBoardLog().size(), "the replay is committed");
+        Check.equal(2L, server.getBoardLog().get(3).getOpId(), "as the newest op");
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class DisplayListTest {
+    public static void main(String[] args) {
+        Check.run("DisplayListTest",
+                Check.test("keepsOrderAcrossChunks", DisplayListTest::keepsOrderAcrossChunks),
+                Check.test("iteratesFromIndex", DisplayListTest::iteratesFromIndex),
+                Check.test("rejectsOutOfBounds", DisplayListTest::rejectsOutOfBounds),
+                Check.test("clearEmpties", DisplayListTest::clearEmpties));
+    }
+
+    static DisplayList listOf(int n) {
+        DisplayList list = new DisplayList();
+        for (int i = 1; i <= n; i++) {
+            DrawCommand op = new DrawCommand(DrawCommand.CommandType.CLEAR);
+            op.setSeq(i);
+            list.add(op);
+        }
+        return list;
+    }
+
+    static void keepsOrderAcrossChunks() {
+        DisplayList list = listOf(2500);
+        Check.equal(2500, list.size(), "size");
+        Check.equal(1024L, list.get(1023).getSeq(), "end of the first chunk");
+        Check.equal(1025L, list.get(1024).getSeq(), "start of the second chunk");
+        long expected = 1;
+        for (DrawCommand op : list) {
+            Check.equal(expected++, op.getSeq(), "paint order");
+        }
+        Check.equal(2501L, expected, "every op iterated");
+    }
+
+    static void iteratesFromIndex() {
+        DisplayList list = listOf(1500);
+        List<Long> seqs = new ArrayList<>();
+        for (DrawCommand op : list.from(1497)) seqs.add(op.getSeq());
+        Check.equal(List.of(1498L, 1499L, 1500L), seqs, "tail");
+        Check.that(!list.iterator(1500).hasNext(), "nothing after the end");
+    }
+
+    static void rejectsOutOfBounds() {
+        DisplayList list = listOf(3);
+        try {
+            list.get(3);
+            throw new AssertionError("get past the end");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        try {
+            list.iterator(3).next();
+            throw new AssertionError("next past the end");
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    static void clearEmpties() {
+        DisplayList list = listOf(1100);
+        list.clear();
+        Check.equal(0, list.size(), "size");
+        Check.that(!list.iterator().hasNext(), "nothing to iterate");
+        list.add(new DrawCommand(DrawCommand.CommandType.CLEAR));
+        Check.equal(1, list.size(), "usable again");
+    }
+}
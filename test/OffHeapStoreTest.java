@@ -0,0 +1,84 @@
+import java.awt.Color;
+import java.awt.Point;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class OffHeapStoreTest {
+    public static void main(String[] args) {
+        Check.run("OffHeapStoreTest",
+                Check.test("storedBytesMatchEncoding", OffHeapStoreTest::storedBytesMatchEncoding),
+                Check.test("decodesAfterOtherMessages", OffHeapStoreTest::decodesAfterOtherMessages),
+                Check.test("bigOpsGetOwnBuffer", OffHeapStoreTest::bigOpsGetOwnBuffer),
+                Check.test("wireOfPrefersStoredBytes", OffHeapStoreTest::wireOfPrefersStoredBytes));
+    }
+
+    static DrawCommand stroke(int points) {
+        StrokeData s = new StrokeData(Color.BLUE, 3, false);
+        for (int i = 0; i < points; i++) s.addPoint(new Point(i, i));
+        DrawCommand cmd = new DrawCommand(s, "alice");
+        cmd.setSeq(points);
+        return cmd;
+    }
+
+    static byte[] bytesOf(ByteBuffer wire) {
+        ByteBuffer b = wire.duplicate();
+        byte[] bytes = new byte[b.remaining()];
+        b.get(bytes);
+        return bytes;
+    }
+
+    static void storedBytesMatchEncoding() {
+        OffHeapStore store = new OffHeapStore();
+        DrawCommand cmd = stroke(10);
+        ByteBuffer wire = store.store(cmd);
+        Check.that(wire.isReadOnly() && wire.isDirect(), "read-only direct memory");
+        Check.that(Arrays.equals(OffHeapStore.encode(cmd), bytesOf(wire)), "same bytes as encode");
+        Check.equal((long) wire.remaining(), store.getStoredBytes(), "stored bytes counted");
+    }
+
+    // Stored ops are copied onto streams that have already carried other messages, as a client's does
+    static void decodesAfterOtherMessages() throws Exception {
+        OffHeapStore store = new OffHeapStore();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new DrawCommand(DrawCommand.CommandType.CHAT, "bob", "before"));
+        out.flush();
+        for (int i = 1; i <= 3; i++) bytes.write(bytesOf(store.store(stroke(i * 5))));
+        out.reset();        // as ClientHandler does before each message, the stored bytes reset the reader
+        out.writeObject(new DrawCommand(DrawCommand.CommandType.CHAT, "bob", "after"));
+        out.flush();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Check.equal("before", ((DrawCommand) in.readObject()).getChatText(), "message before");
+        for (int i = 1; i <= 3; i++) {
+            DrawCommand op = (DrawCommand) in.readObject();
+            Check.equal(i * 5, op.getStroke().size(), "stroke " + i);
+            Check.equal((long) i * 5, op.getSeq(), "seq " + i);
+            Check.that(op.getWire() == null, "the stored bytes aren't sent along");
+        }
+        Check.equal("after", ((DrawCommand) in.readObject()).getChatText(), "message after");
+    }
+
+    static void bigOpsGetOwnBuffer() {
+        OffHeapStore store = new OffHeapStore();
+        ByteBuffer small = store.store(stroke(10));
+        ByteBuffer big = store.store(stroke(20_000));
+        ByteBuffer next = store.store(stroke(10));
+        Check.equal(big.remaining(), big.capacity(), "big op fills a buffer of its own");
+        Check.that(small.capacity() == small.remaining() && next.remaining() == small.remaining(), "small ops are slices");
+        Check.that(Arrays.equals(bytesOf(small), OffHeapStore.encode(stroke(10))), "slice not overwritten by the next op");
+    }
+
+    static void wireOfPrefersStoredBytes() {
+        OffHeapStore store = new OffHeapStore();
+        DrawCommand cmd = stroke(10);
+        ByteBuffer heap = OffHeapStore.wireOf(cmd);
+        Check.that(!heap.isDirect(), "one-off encoding on the heap");
+        cmd.setWire(store.store(cmd));
+        Check.that(OffHeapStore.wireOf(cmd) == cmd.getWire(), "stored bytes reused");
+    }
+}
@@ -0,0 +1,110 @@
+import java.awt.Color;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+public class OutboundQueueTest {
+    public static void main(String[] args) {
+        Check.run("OutboundQueueTest",
+                Check.test("newerPreviewTakesQueuedOnesPlace", OutboundQueueTest::newerPreviewTakesQueuedOnesPlace),
+                Check.test("finalsAreSentExactlyInOrder", OutboundQueueTest::finalsAreSentExactlyInOrder),
+                Check.test("onlyLatestCursorIsSent", OutboundQueueTest::onlyLatestCursorIsSent),
+                Check.test("fullQueueDropsPreviewsFirst", OutboundQueueTest::fullQueueDropsPreviewsFirst),
+                Check.test("fullOfFinalsRefuses", OutboundQueueTest::fullOfFinalsRefuses),
+                Check.test("interruptedWriterStops", OutboundQueueTest::interruptedWriterStops));
+    }
+
+    static DrawCommand stroke(long itemId, boolean preview, int points) {
+        StrokeData s = new StrokeData(Color.BLUE, 3, preview);
+        for (int i = 0; i < points; i++) s.addPoint(new Point(i, i));
+        DrawCommand cmd = new DrawCommand(s, "alice");
+        cmd.setItemId(itemId);
+        return cmd;
+    }
+
+    static DrawCommand cursor(int x) {
+        return new DrawCommand(new PresenceFrame(new String[]{"alice"}, new short[]{(short) x, 0}));
+    }
+
+    static List<DrawCommand> drain(OutboundQueue queue) throws InterruptedException {
+        List<DrawCommand> sent = new ArrayList<>();
+        while (queue.size() > 0) sent.add(queue.take());
+        return sent;
+    }
+
+    static void newerPreviewTakesQueuedOnesPlace() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        queue.offer(stroke(1, true, 1));
+        queue.offer(stroke(2, true, 1));
+        queue.offer(stroke(1, true, 5));
+        Check.equal(2, queue.size(), "one preview per drawing");
+        List<DrawCommand> sent = drain(queue);
+        Check.equal(1L, sent.get(0).getItemId(), "keeps its place in the queue");
+        Check.equal(5, sent.get(0).getStroke().size(), "with the newest points");
+        Check.equal(2L, sent.get(1).getItemId(), "other drawing");
+    }
+
+    static void finalsAreSentExactlyInOrder() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        for (int i = 1; i <= 5; i++) {
+            DrawCommand op = stroke(1, false, i);
+            op.setOpId(i);
+            queue.offer(op);
+        }
+        List<DrawCommand> sent = drain(queue);
+        Check.equal(5, sent.size(), "none superseded");
+        for (int i = 0; i < 5; i++) Check.equal((long) i + 1, sent.get(i).getOpId(), "order");
+    }
+
+    static void onlyLatestCursorIsSent() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        for (int x = 0; x < 100; x++) queue.offer(cursor(x));
+        List<DrawCommand> sent = drain(queue);
+        Check.equal(1, sent.size(), "one cursor frame");
+        Check.equal((short) 99, sent.get(0).getPresence().getQuantizedX(0), "the latest one");
+    }
+
+    static void fullQueueDropsPreviewsFirst() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        for (int i = 1; i <= 1000; i++) queue.offer(stroke(i, true, 1));
+        for (int i = 1; i <= 1000; i++) queue.offer(stroke(i, false, 1));
+        Check.equal(2000, queue.size(), "full");
+        Check.that(queue.offer(stroke(5000, true, 1)), "a new preview is dropped, not refused");
+        Check.that(queue.offer(stroke(5001, false, 1)), "a final makes room");
+        Check.equal(2000, queue.size(), "still at the cap");
+        List<DrawCommand> sent = drain(queue);
+        Check.that(sent.stream().noneMatch(c -> c.getItemId() == 5000), "the new preview was dropped");
+        Check.equal(2L, sent.get(0).getItemId(), "the oldest preview made room");
+        Check.equal(5001L, sent.get(sent.size() - 1).getItemId(), "the final was kept");
+    }
+
+    static void fullOfFinalsRefuses() {
+        OutboundQueue queue = new OutboundQueue();
+        for (int i = 1; i <= 2000; i++) Check.that(queue.offer(stroke(i, false, 1)), "final " + i);
+        Check.that(!queue.offer(stroke(2001, false, 1)), "the connection has stopped moving");
+        Check.equal(2000, queue.size(), "nothing lost");
+    }
+
+    static void interruptedWriterStops() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        queue.offer(stroke(1, false, 1));
+        Thread.currentThread().interrupt();
+        try {
+            queue.take();
+            throw new AssertionError("took a message for a closed connection");
+        } catch (InterruptedException expected) {
+        }
+        Check.equal(1, queue.size(), "the message is left queued");
+
+        Thread waiting = new Thread(() -> {
+            try {
+                new OutboundQueue().take();
+            } catch (InterruptedException expected) {
+            }
+        });
+        waiting.start();
+        waiting.interrupt();
+        waiting.join(2000);
+        Check.that(!waiting.isAlive(), "a waiting writer is woken by the interrupt");
+    }
+}
@@ -0,0 +1,71 @@
+public class RateLimiterTest {
+    public static void main(String[] args) {
+        Check.run("RateLimiterTest",
+                Check.test("bucketAllowsBurstThenRefills", RateLimiterTest::bucketAllowsBurstThenRefills),
+                Check.test("bucketNeverHoldsMoreThanBurst", RateLimiterTest::bucketNeverHoldsMoreThanBurst),
+                Check.test("limitsEachTypeSeparately", RateLimiterTest::limitsEachTypeSeparately),
+                Check.test("unlimitedTypesPass", RateLimiterTest::unlimitedTypesPass),
+                Check.test("eraseKeepsUpWithClientThrottle", RateLimiterTest::eraseKeepsUpWithClientThrottle),
+                Check.test("floodingMakesOffender", RateLimiterTest::floodingMakesOffender));
+    }
+
+    static int take(TokenBucket bucket, int tries) {
+        int taken = 0;
+        for (int i = 0; i < tries; i++) {
+            if (bucket.tryTake()) taken++;
+        }
+        return taken;
+    }
+
+    static void bucketAllowsBurstThenRefills() throws Exception {
+        TokenBucket bucket = new TokenBucket(100, 5);
+        Check.equal(5, take(bucket, 20), "the burst");
+        Thread.sleep(50);
+        int refilled = take(bucket, 20);
+        Check.that(refilled >= 4 && refilled <= 5, "about 5 tokens after 50ms at 100/s, got " + refilled);
+    }
+
+    static void bucketNeverHoldsMoreThanBurst() throws Exception {
+        TokenBucket bucket = new TokenBucket(1000, 3);
+        Thread.sleep(50);
+        Check.equal(3, take(bucket, 20), "capped at the burst");
+    }
+
+    static void limitsEachTypeSeparately() {
+        RateLimiter limiter = new RateLimiter();
+        int clears = 0;
+        for (int i = 0; i < 10; i++) {
+            if (limiter.allow(DrawCommand.CommandType.CLEAR)) clears++;
+        }
+        Check.equal(3, clears, "CLEAR burst");
+        Check.that(limiter.allow(DrawCommand.CommandType.STROKE), "strokes have their own bucket");
+        Check.that(!limiter.isRepeatOffender(), "a few rejections are not flooding");
+    }
+
+    static void unlimitedTypesPass() {
+        RateLimiter limiter = new RateLimiter();
+        for (int i = 0; i < 1000; i++) {
+            Check.that(limiter.allow(DrawCommand.CommandType.HELLO), "HELLO has no limit");
+        }
+    }
+
+    // The client sends an eraser chunk at most every 16ms, a drag must never be refused even with the burst spent
+    static void eraseKeepsUpWithClientThrottle() throws Exception {
+        RateLimiter limiter = new RateLimiter();
+        while (limiter.allow(DrawCommand.CommandType.ERASE)) {
+            // spend the burst
+        }
+        Thread.sleep(16);
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            while (System.nanoTime() - start < i * 16_000_000L) Thread.sleep(1);
+            Check.that(limiter.allow(DrawCommand.CommandType.ERASE), "steady erase chunk " + i);
+        }
+    }
+
+    static void floodingMakesOffender() {
+        RateLimiter limiter = new RateLimiter();
+        for (int i = 0; i < 200; i++) limiter.allow(DrawCommand.CommandType.CLEAR);
+        Check.that(limiter.isRepeatOffender(), "the offence bucket ran out");
+    }
+}
@@ -0,0 +1,137 @@
+import java.awt.Color;
+import java.awt.Point;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ResumeTest {
+    // Joins and resumes against a real server while another user keeps drawing, the catch-up must
+    // hand over to live ops without skipping or repeating a seq
+    public static void main(String[] args) throws Exception {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        CreateWhiteBoard server = new CreateWhiteBoard(port, "alice");
+        Thread serverThread = new Thread(server::startServer, "test-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        try {
+            Check.run("ResumeTest",
+                    Check.test("joinAndResumeHaveNoGaps", () -> joinAndResumeHaveNoGaps(port)));
+        } finally {
+            server.stopServer();
+        }
+    }
+
+    static class Client {
+        private final Socket socket;
+        private final ObjectOutputStream out;
+        private final List<DrawCommand> got = Collections.synchronizedList(new ArrayList<>());
+
+        Client(int port, String name, String boardId, long seq, String token) throws Exception {
+            Socket s = null;
+            for (int tries = 0; s == null; tries++) {
+                try {
+                    s = new Socket("localhost", port);
+                } catch (java.net.ConnectException e) {
+                    if (tries == 50) throw e;
+                    Thread.sleep(100);
+                }
+            }
+            socket = s;
+            out = new ObjectOutputStream(socket.getOutputStream());
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+            DrawCommand hello = new DrawCommand(DrawCommand.CommandType.HELLO, name, boardId);
+            hello.setSeq(seq);
+            hello.setToken(token);
+            send(hello);
+            Thread reader = new Thread(() -> {
+                try {
+                    while (true) got.add((DrawCommand) in.readObject());
+                } catch (Exception e) {
+                    // closed
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        synchronized void send(DrawCommand cmd) throws Exception {
+            out.reset();
+            out.writeObject(cmd);
+            out.flush();
+        }
+
+        String find(DrawCommand.CommandType type) {
+            synchronized (got) {
+                for (DrawCommand c : got) if (c.getType() == type) return c.getChatText();
+            }
+            return null;
+        }
+
+        // The seqs of the shapes received, which have to run on from the seq the client started at
+        long lastSeq(long from, List<String> gaps) {
+            long last = from;
+            synchronized (got) {
+                for (DrawCommand c : got) {
+                    if (c.getType() == DrawCommand.CommandType.CLEAR) {
+                        last = 0;
+                    } else if (c.getType() == DrawCommand.CommandType.SHAPE && c.getSeq() > 0) {
+                        if (c.getSeq() != last + 1) gaps.add(last + " -> " + c.getSeq());
+                        last = c.getSeq();
+                    }
+                }
+            }
+            return last;
+        }
+    }
+
+    static void joinAndResumeHaveNoGaps(int port) throws Exception {
+        Client alice = new Client(port, "alice", null, 0, null);
+        Thread.sleep(300);
+        Thread drawing = new Thread(() -> {
+            try {
+                for (int i = 1; !Thread.currentThread().isInterrupted(); i++) {
+                    DrawCommand op = new DrawCommand(new Rectangles(new Point(i % 500, 5), new Point(i % 500 + 5, 10), 2, Color.RED, false), "alice");
+                    op.setOpId(i);
+                    alice.send(op);
+                    Thread.sleep(10);
+                }
+            } catch (Exception e) {
+                // stopped
+            }
+        });
+        drawing.start();
+        try {
+            Thread.sleep(300);
+            Client bob = new Client(port, "bob", null, 0, null);
+            Thread.sleep(200);
+            alice.send(new DrawCommand(DrawCommand.CommandType.AUTH, "bob", "YES"));
+            Thread.sleep(800);
+
+            List<String> gaps = new ArrayList<>();
+            long resumeAt = bob.lastSeq(0, gaps);
+            Check.equal(List.of(), gaps, "gaps on join");
+            Check.that(resumeAt > 0, "bob got the board");
+
+            String token = bob.find(DrawCommand.CommandType.SESSION);
+            String boardId = bob.find(DrawCommand.CommandType.MGRINFO);
+            bob.socket.close();
+            Thread.sleep(300);
+            Client resumed = new Client(port, "bob", boardId, resumeAt, token);
+            Thread.sleep(800);
+            long last = resumed.lastSeq(resumeAt, gaps);
+            Check.equal(List.of(), gaps, "gaps on resume from " + resumeAt);
+            Check.that(last > resumeAt, "the resumed session carries on");
+        } finally {
+            drawing.interrupt();
+            drawing.join();
+        }
+    }
+}
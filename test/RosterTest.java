@@ -0,0 +1,53 @@
+import java.util.List;
+
+public class RosterTest {
+    public static void main(String[] args) {
+        Check.run("RosterTest",
+                Check.test("eachChangeBumpsVersion", RosterTest::eachChangeBumpsVersion),
+                Check.test("noChangeKeepsVersion", RosterTest::noChangeKeepsVersion),
+                Check.test("relayedDeltaKeepsPrimaryVersion", RosterTest::relayedDeltaKeepsPrimaryVersion),
+                Check.test("snapshotCarriesVersion", RosterTest::snapshotCarriesVersion),
+                Check.test("resetReplacesMembers", RosterTest::resetReplacesMembers));
+    }
+
+    static void eachChangeBumpsVersion() {
+        Roster roster = new Roster();
+        Check.equal(1L, roster.join("alice", 0), "alice joins");
+        Check.equal(2L, roster.join("bob", 0), "bob joins");
+        Check.equal(3L, roster.leave("alice", 0), "alice leaves");
+        Check.that(!roster.contains("alice") && roster.contains("bob"), "members");
+    }
+
+    static void noChangeKeepsVersion() {
+        Roster roster = new Roster();
+        roster.join("alice", 0);
+        Check.equal(1L, roster.join("alice", 0), "joining twice");
+        Check.equal(1L, roster.leave("bob", 0), "leaving without having joined");
+        Check.equal(1, roster.size(), "size");
+    }
+
+    static void relayedDeltaKeepsPrimaryVersion() {
+        Roster roster = new Roster();
+        Check.equal(7L, roster.join("alice", 7), "version from the primary");
+        Check.equal(8L, roster.join("bob", 0), "local changes carry on from it");
+    }
+
+    static void snapshotCarriesVersion() {
+        Roster roster = new Roster();
+        roster.join("alice", 0);
+        roster.join("bob", 0);
+        DrawCommand snapshot = roster.snapshot();
+        Check.equal(DrawCommand.CommandType.USER, snapshot.getType(), "type");
+        Check.equal(List.of("alice", "bob"), snapshot.getUserList(), "members in join order");
+        Check.equal(2L, snapshot.getRosterVersion(), "version");
+    }
+
+    static void resetReplacesMembers() {
+        Roster roster = new Roster();
+        roster.join("alice", 0);
+        roster.reset(List.of("bob", "carol"), 12);
+        Check.that(!roster.contains("alice"), "old members gone");
+        Check.equal(List.of("bob", "carol"), roster.snapshot().getUserList(), "members");
+        Check.equal(13L, roster.join("dave", 0), "version carries on from the snapshot");
+    }
+}
@@ -0,0 +1,75 @@
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SessionRegistryTest {
+    public static void main(String[] args) {
+        Check.run("SessionRegistryTest",
+                Check.test("issuesDistinctTokens", SessionRegistryTest::issuesDistinctTokens),
+                Check.test("resumeNeedsTokenAndUser", SessionRegistryTest::resumeNeedsTokenAndUser),
+                Check.test("resumeClosesSupersededConnection", SessionRegistryTest::resumeClosesSupersededConnection),
+                Check.test("resumeWithinGraceKeepsSession", SessionRegistryTest::resumeWithinGraceKeepsSession),
+                Check.test("expiresAfterGrace", SessionRegistryTest::expiresAfterGrace),
+                Check.test("onlyOwnerDetachesOrEnds", SessionRegistryTest::onlyOwnerDetachesOrEnds));
+    }
+
+    static ClientHandler handler() {
+        return new ClientHandler(new Socket(), null);
+    }
+
+    static void issuesDistinctTokens() {
+        SessionRegistry sessions = new SessionRegistry(1000);
+        String a = sessions.issue("alice", handler());
+        String b = sessions.issue("alice", handler());
+        Check.equal(32, a.length(), "token length");
+        Check.that(!a.equals(b), "tokens are distinct");
+    }
+
+    static void resumeNeedsTokenAndUser() {
+        SessionRegistry sessions = new SessionRegistry(1000);
+        String token = sessions.issue("alice", handler());
+        Check.that(!sessions.resume(token, "bob", handler()), "another user's token");
+        Check.that(!sessions.resume("0".repeat(32), "alice", handler()), "unknown token");
+        Check.that(!sessions.resume(null, "alice", handler()), "no token");
+    }
+
+    static void resumeClosesSupersededConnection() throws Exception {
+        SessionRegistry sessions = new SessionRegistry(1000);
+        Socket halfOpen = new Socket();
+        String token = sessions.issue("alice", new ClientHandler(halfOpen, null));
+        Check.that(sessions.resume(token, "alice", handler()), "resumed");
+        Check.that(halfOpen.isClosed(), "the old connection is closed");
+    }
+
+    static void resumeWithinGraceKeepsSession() throws Exception {
+        SessionRegistry sessions = new SessionRegistry(200);
+        ClientHandler first = handler();
+        String token = sessions.issue("alice", first);
+        CountDownLatch expired = new CountDownLatch(1);
+        Check.that(sessions.detach(token, first, expired::countDown), "detached");
+        Check.that(sessions.resume(token, "alice", handler()), "resumed within the grace period");
+        Check.that(!expired.await(400, TimeUnit.MILLISECONDS), "the expiry was cancelled");
+    }
+
+    static void expiresAfterGrace() throws Exception {
+        SessionRegistry sessions = new SessionRegistry(50);
+        ClientHandler first = handler();
+        String token = sessions.issue("alice", first);
+        CountDownLatch expired = new CountDownLatch(1);
+        sessions.detach(token, first, expired::countDown);
+        Check.that(expired.await(2, TimeUnit.SECONDS), "expired");
+        Check.that(!sessions.resume(token, "alice", handler()), "an expired token can't be resumed");
+    }
+
+    static void onlyOwnerDetachesOrEnds() {
+        SessionRegistry sessions = new SessionRegistry(1000);
+        ClientHandler first = handler();
+        ClientHandler second = handler();
+        String token = sessions.issue("alice", first);
+        sessions.resume(token, "alice", second);
+        Check.that(!sessions.detach(token, first, () -> {}), "the superseded connection can't detach");
+        Check.that(!sessions.end(token, first), "nor end the session");
+        Check.that(sessions.end(token, second), "the owner ends it");
+        Check.that(!sessions.resume(token, "alice", handler()), "an ended session can't be resumed");
+    }
+}
@@ -0,0 +1,78 @@
+import java.awt.Color;
+import java.awt.Point;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+public class StreamCompressionTest {
+    public static void main(String[] args) {
+        Check.run("StreamCompressionTest",
+                Check.test("onlyDeflateSupported", StreamCompressionTest::onlyDeflateSupported),
+                Check.test("roundTripsMessages", StreamCompressionTest::roundTripsMessages),
+                Check.test("flushSendsMessageWhole", StreamCompressionTest::flushSendsMessageWhole),
+                Check.test("shrinksDrawingTraffic", StreamCompressionTest::shrinksDrawingTraffic));
+    }
+
+    static DrawCommand stroke(int points) {
+        StrokeData s = new StrokeData(Color.BLUE, 3, false);
+        for (int i = 0; i < points; i++) s.addPoint(new Point(i, i / 2));
+        return new DrawCommand(s, "alice");
+    }
+
+    static void onlyDeflateSupported() {
+        Check.that(StreamCompression.isSupported(StreamCompression.DEFLATE), "deflate");
+        Check.that(!StreamCompression.isSupported("gzip"), "gzip");
+        Check.that(!StreamCompression.isSupported(null), "none offered");
+    }
+
+    static void roundTripsMessages() throws Exception {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(StreamCompression.compress(wire));
+        for (int i = 1; i <= 50; i++) {
+            DrawCommand chat = new DrawCommand(DrawCommand.CommandType.CHAT, "alice", "message " + i);
+            chat.setChatId(i);
+            out.writeObject(chat);
+            out.reset();
+        }
+        out.writeObject(stroke(500));
+        out.flush();
+
+        ObjectInputStream in = new ObjectInputStream(StreamCompression.decompress(new ByteArrayInputStream(wire.toByteArray())));
+        for (int i = 1; i <= 50; i++) {
+            DrawCommand chat = (DrawCommand) in.readObject();
+            Check.equal("message " + i, chat.getChatText(), "chat text");
+            Check.equal((long) i, chat.getChatId(), "chat id");
+        }
+        Check.equal(500, ((DrawCommand) in.readObject()).getStroke().size(), "stroke points");
+    }
+
+    // Nothing is held back in the deflater, the bytes written so far decode to the whole message
+    static void flushSendsMessageWhole() throws Exception {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(StreamCompression.compress(wire));
+        out.writeObject(new DrawCommand(DrawCommand.CommandType.CHAT, "alice", "first"));
+        out.flush();
+        byte[] sent = wire.toByteArray();
+        out.writeObject(new DrawCommand(DrawCommand.CommandType.CHAT, "alice", "second"));
+
+        ObjectInputStream in = new ObjectInputStream(StreamCompression.decompress(new ByteArrayInputStream(sent)));
+        Check.equal("first", ((DrawCommand) in.readObject()).getChatText(), "first message");
+    }
+
+    static void shrinksDrawingTraffic() throws Exception {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        ObjectOutputStream plainOut = new ObjectOutputStream(plain);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ObjectOutputStream compressedOut = new ObjectOutputStream(StreamCompression.compress(compressed));
+        for (int i = 0; i < 20; i++) {
+            plainOut.writeObject(stroke(200));
+            plainOut.reset();
+            compressedOut.writeObject(stroke(200));
+            compressedOut.reset();
+        }
+        plainOut.flush();
+        compressedOut.flush();
+        Check.that(compressed.size() * 2 < plain.size(), compressed.size() + " compressed bytes against " + plain.size());
+    }
+}